@@ -0,0 +1,24 @@
+package AudioPlayer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+//Location of the files the player keeps between launches (library index, caches ...)
+public final class AppData {
+    public static final Path DIR = Paths.get(System.getProperty("user.home"), ".musicplayersimulator");
+
+    private AppData() {
+    }
+
+    //Resolve a file or folder inside the data folder, the data folder is created when missing.
+    public static Path resolve(String name) {
+        try {
+            Files.createDirectories(DIR);
+        } catch (IOException e) {
+            System.err.println("Error creating the data directory: " + e.getMessage());
+        }
+        return DIR.resolve(name);
+    }
+}
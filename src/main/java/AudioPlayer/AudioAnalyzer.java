@@ -0,0 +1,240 @@
+package AudioPlayer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/* AudioAnalyzer computes a waveform overview and an integrated loudness for every track, on a pool of worker threads.
+ * JavaFX gives no access to decoded samples, so the level of the audio is estimated from the MP3 frames themselves:
+ * each layer III granule stores a global gain, one step of it is 1.5 dB of quantizer scale, which follows the level
+ * of the music closely enough for an overview. Only the frame headers and side info of the memory mapped file are read,
+ * no audio is decoded. The loudness is therefore an estimate from the global gains, not a ReplayGain or R128 measurement:
+ * the scalefactors, the stereo mode and the content of each granule are ignored, so two tracks of the same estimate may
+ * still sound different. Evening out the volume with it is only done when asked for (-Dplayer.normalize=true).
+ * Results are kept per track in a small cache file named after the track file key (name, size, modified time). */
+public class AudioAnalyzer {
+    public static final int WAVEFORM_POINTS = 256;
+    private static final int CACHE_MAGIC = 0x4D505741;
+    private static final int CACHE_VERSION = 1;
+    private static final double DB_PER_GAIN_STEP = 1.5;
+    // global gain of a quantizer step of 1.0, loudness is given relative to it
+    private static final int UNITY_GAIN = 210;
+    // granules more than this below the ungated mean are left out of the loudness (relative gate)
+    private static final double GATE_DB = 10;
+    // waveform points span this range below loudness + headroom
+    private static final double WAVEFORM_HEADROOM_DB = 6;
+    private static final double WAVEFORM_RANGE_DB = 30;
+    private final Path songsDir;
+    private final Path cacheDir;
+    private final int threads;
+    private final ExecutorService pool;
+
+    public AudioAnalyzer(Path songsDir, Path cacheDir, int threads) {
+        this.songsDir = songsDir;
+        this.cacheDir = cacheDir;
+        this.threads = Math.max(1, threads);
+        this.pool = Executors.newFixedThreadPool(this.threads, runnable -> {
+            Thread thread = new Thread(runnable, "analysis");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Files.createDirectories(cacheDir);
+        } catch (IOException e) {
+            System.err.println("Error creating the analysis directory: " + e.getMessage());
+        }
+    }
+
+    //Estimated loudness in dB relative to the unity gain of the frames (NaN when unknown),
+    //and the waveform points (0 - 255, mean level of each slice of the track).
+    public record Analysis(float loudness, byte[] waveform) {
+    }
+
+    //Analyse the tracks that have no analysis yet, one task per track, blocks until done and returns the tracks per second.
+    public double analyze(List<Track> tracks) {
+        long startTime = System.nanoTime();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Track track : tracks) {
+            if (track.getAnalysis() == null) {
+                tasks.add(() -> {
+                    track.setAnalysis(analyzeCached(track));
+                    return null;
+                });
+            }
+        }
+        try {
+            pool.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return seconds > 0 ? tasks.size() / seconds : 0;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    //A volume multiplier that brings the track to the reference loudness, only turning down since 1.0 is the maximum.
+    public static double volumeFactor(Analysis analysis, double referenceLoudness) {
+        if (analysis == null || Float.isNaN(analysis.loudness()) || Double.isNaN(referenceLoudness)) {
+            return 1;
+        }
+        return Math.min(1, Math.pow(10, (referenceLoudness - analysis.loudness()) / 20));
+    }
+
+    private Analysis analyzeCached(Track track) {
+        Path cache = cacheDir.resolve(track.fileKey() + ".wave");
+        Analysis analysis = readCache(cache);
+        if (analysis != null) {
+            return analysis;
+        }
+        try {
+            analysis = analyzeFile(songsDir.resolve(track.getName()));
+        } catch (IOException e) {
+            System.err.println("Error analysing " + track.getName() + ": " + e.getMessage());
+            return new Analysis(Float.NaN, new byte[0]);
+        }
+        writeCache(cache, analysis);
+        return analysis;
+    }
+
+    //Walk the frames of an MP3 file and summarise the global gains of its granules.
+    public static Analysis analyzeFile(Path file) throws IOException {
+        GainList gains = new GainList();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), Integer.MAX_VALUE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int[] frameGains = new int[4];
+            int position = Mp3Frame.find(buffer, Mp3Frame.id3v2Length(buffer));
+            while (position >= 0) {
+                Mp3Frame frame = Mp3Frame.at(buffer, position);
+                if (frame == null) {
+                    position = Mp3Frame.find(buffer, position + 1);
+                    continue;
+                }
+                int count = frame.readGains(buffer, position, frameGains);
+                for (int i = 0; i < count; i++) {
+                    gains.add(frameGains[i]);
+                }
+                position += frame.length();
+            }
+        }
+        return summarise(gains);
+    }
+
+    //Estimated loudness, gated like ReplayGain / EBU R128: the mean level is taken once over all sounding granules,
+    //then again over the granules at most GATE_DB below that first mean. The gains are no sample powers,
+    //so levels are averaged in dB, a power mean would only follow the few granules with the highest gain.
+    private static Analysis summarise(GainList gains) {
+        double ungated = meanLevel(gains, Double.NEGATIVE_INFINITY);
+        byte[] waveform = new byte[gains.size > 0 ? WAVEFORM_POINTS : 0];
+        if (Double.isNaN(ungated)) {
+            return new Analysis(Float.NaN, waveform);
+        }
+        double loudness = meanLevel(gains, ungated - GATE_DB);
+
+        double top = loudness + WAVEFORM_HEADROOM_DB;
+        for (int point = 0; point < WAVEFORM_POINTS; point++) {
+            int from = (int) ((long) point * gains.size / WAVEFORM_POINTS);
+            int to = Math.max((int) ((long) (point + 1) * gains.size / WAVEFORM_POINTS), from + 1);
+            double sum = 0;
+            int sounding = 0;
+            for (int i = from; i < to && i < gains.size; i++) {
+                if (gains.values[i] >= 0) {
+                    sum += level(gains.values[i]);
+                    sounding++;
+                }
+            }
+            double belowTop = sounding == 0 ? WAVEFORM_RANGE_DB : top - sum / sounding;
+            waveform[point] = (byte) Math.round(255 * Math.min(1, Math.max(0, 1 - belowTop / WAVEFORM_RANGE_DB)));
+        }
+        return new Analysis((float) loudness, waveform);
+    }
+
+    //Mean level in dB of the sounding granules at or above the gate, NaN when there is none.
+    private static double meanLevel(GainList gains, double gateDb) {
+        double sum = 0;
+        int counted = 0;
+        for (int i = 0; i < gains.size; i++) {
+            if (gains.values[i] >= 0 && level(gains.values[i]) >= gateDb) {
+                sum += level(gains.values[i]);
+                counted++;
+            }
+        }
+        return counted > 0 ? sum / counted : Double.NaN;
+    }
+
+    private static double level(int globalGain) {
+        return (globalGain - UNITY_GAIN) * DB_PER_GAIN_STEP;
+    }
+
+    private static Analysis readCache(Path cache) {
+        if (!Files.exists(cache)) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(cache); DataInputStream data = new DataInputStream(in)) {
+            if (data.readInt() != CACHE_MAGIC || data.readInt() != CACHE_VERSION) {
+                return null;
+            }
+            float loudness = data.readFloat();
+            byte[] waveform = new byte[data.readInt()];
+            data.readFully(waveform);
+            return new Analysis(loudness, waveform);
+        } catch (IOException e) {
+            System.err.println("Error reading analysis cache: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeCache(Path cache, Analysis analysis) {
+        Path temp = cache.resolveSibling(cache.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp); DataOutputStream data = new DataOutputStream(out)) {
+            data.writeInt(CACHE_MAGIC);
+            data.writeInt(CACHE_VERSION);
+            data.writeFloat(analysis.loudness());
+            data.writeInt(analysis.waveform().length);
+            data.write(analysis.waveform());
+        } catch (IOException e) {
+            System.err.println("Error writing analysis cache: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error writing analysis cache: " + e.getMessage());
+        }
+    }
+
+    //A growable int array of granule gains.
+    private static class GainList {
+        private int[] values = new int[4096];
+        private int size = 0;
+
+        void add(int gain) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = gain;
+        }
+    }
+}
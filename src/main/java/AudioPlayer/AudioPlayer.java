@@ -1,59 +1,218 @@
 package AudioPlayer;
 
-import UI.App;
-import UI.Perf;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
-import javafx.scene.image.Image;
-import javafx.scene.media.Media;
-import javafx.scene.media.MediaPlayer;
-import javafx.util.Duration;
-
-import java.net.URL;
-import java.util.LinkedList;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Queue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /* AudioPlayer module use Two Classes to make the playing function works
- * AudioPlayer focus on Creating the Media Player Powered by JavaFX
+ * AudioPlayer focus on the playing logic, the tracks are played by a PlaybackEngine
+ * (FxPlaybackEngine with the JavaFX Media Player, or SimulatedPlaybackEngine without the FX toolkit)
  * Offers Playback mode management, Play, Pause, Up and Next Function
- * Realtime Progress Update
- * Realtime Audio Spectrum
- * Playlist Management Located at Playlist.java*/
+ * Progress, song open times and library statistics are sent to the PlaybackListeners
+ * Playlist Management Located at Playlist.java
+ * One AudioPlayer is shared by the whole app (player, downloads and performance window), it scans the library once.
+ * The session (track, position, mode, volume) is saved in the background on every change and cued again on launch.
+ * Its background threads are started by start() and stopped by stop(), the library itself is used on the FX thread.*/
 
 public class AudioPlayer {
     public static final int CYCLE = 0;
     public static final int SHUFFLE = 1;
     public static final int SINGLE = 2;
-    private static final int DELAY_FRAMES = 3;
+    private static final long THUMBNAIL_MEMORY_BUDGET = 16L * 1024 * 1024;
+    // turn loud tracks down to the median loudness of the library, off unless asked for since the loudness is only estimated
+    private static final boolean NORMALIZE = Boolean.parseBoolean(System.getProperty("player.normalize", "false"));
+    // the memory after each opened track is printed only when asked for, the performance window shows it every second
+    private static final boolean DEBUG = Boolean.parseBoolean(System.getProperty("player.debug", "false"));
+    // while playing, the position is saved again after this much media time
+    private static final double SESSION_POSITION_INTERVAL = 5_000;
     private final Playlist playlist;
-    private final Queue<float[]> magnitudeQueue = new LinkedList<>();
-    //Initialize
-    private MediaPlayer mediaPlayer;
-    private Timeline proTimeline;
-    private Media media;
-    private Canvas spectrumCanvas;
+    private final PlaybackEngine engine;
+    // null when the covers are not shown
+    private final ThumbnailCache thumbnails;
+    private final List<PlaybackListener> listeners = new ArrayList<>();
+    // null when the session is not kept
+    private final SessionStore sessionStore;
+    private ScheduledExecutorService monitorExecutor;
     private int playbackMode = 0;
+    // volume chosen by the user, the engine gets it multiplied by the normalization of the track
+    private double volume = 1;
+    private boolean mute = false;
+    private double positionMillis = 0;
+    private double savedPositionMillis = 0;
 
+    //Only loads the library from the songs folder, the background work begins with start().
     public AudioPlayer() {
-        playlist = new Playlist();
-        Perf perf = new Perf();
-        perf.initializeSongData(playlist.getFilePlaylist().size());
-        startMemoryMonitoring();
+        this(new Playlist(), new FxPlaybackEngine(), new SessionStore(AppData.resolve("session")),
+                new ThumbnailCache(THUMBNAIL_MEMORY_BUDGET, AppData.resolve("thumbnails")));
+    }
+
+    //Any library and engine, e.g. an in memory playlist with a SimulatedPlaybackEngine.
+    //The session is not kept and there are no thumbnails, so nothing is written to the data directory.
+    public AudioPlayer(Playlist playlist, PlaybackEngine engine) {
+        this(playlist, engine, null, null);
+    }
+
+    public AudioPlayer(Playlist playlist, PlaybackEngine engine, SessionStore sessionStore, ThumbnailCache thumbnails) {
+        this.playlist = playlist;
+        this.engine = engine;
+        this.sessionStore = sessionStore;
+        this.thumbnails = thumbnails;
+        engine.setListener(new EngineEvents());
+    }
+
+    //Listeners get the events in the order they were added, on the FX thread (or the thread driving the engine).
+    public void addListener(PlaybackListener listener) {
+        listeners.add(listener);
+    }
+
+    //Read the tags in the background and start the memory monitor, called once on the FX thread when the app starts.
+    public void start() {
+        if (monitorExecutor != null) {
+            return;
+        }
+        String loadReport = playlist.getLoadReport();
+        listeners.forEach(listener -> listener.onLibraryLoaded(playlist.getTrackTable().idLimit(), loadReport));
+        playlist.readMetadata(report -> {
+            listeners.forEach(listener -> listener.onTagsRead(report));
+            playlist.analyze(analysisReport -> {
+                applyVolume();
+                listeners.forEach(listener -> listener.onAnalysis(analysisReport));
+            });
+        });
+        startMemoryMonitoring(Thread.currentThread().threadId());
+    }
+
+    //Stop the watcher, the memory monitor, the tag readers, the thumbnail loader and the engine.
+    //The last session is handed to the writer thread, which finishes it while the app exits.
+    public void stop() {
+        saveSession();
+        if (sessionStore != null) {
+            sessionStore.close();
+        }
+        playlist.shutdown();
+        if (thumbnails != null) {
+            thumbnails.shutdown();
+        }
+        if (monitorExecutor != null) {
+            monitorExecutor.shutdownNow();
+            monitorExecutor = null;
+        }
+        engine.dispose();
+    }
+
+    //the library in file name order, rows of the UI refer to tracks by their id.
+    public List<Track> getTracks() {
+        return playlist.getTracks();
+    }
+
+    public TrackTable getTrackTable() {
+        return playlist.getTrackTable();
+    }
+
+    //Downscaled covers, shared by the album view and the song list, null for a player without thumbnails.
+    public ThumbnailCache getThumbnails() {
+        return thumbnails;
+    }
+
+    //library position of a track, -1 when it is not in the library.
+    public int getPosition(int trackId) {
+        return playlist.getPosition(trackId);
     }
 
-    public List<String> getPlaylist() {
-        return playlist.getFilePlaylist();
+    //-1 when the library is empty.
+    public int getCurrentTrackId() {
+        return playlist.getCurrentTrackId();
     }
 
+    //Ids of the tracks matching the query (null for a blank query), the query time is sent to the listeners.
+    public int[] search(String query) {
+        long startTime = System.nanoTime();
+        int[] ids = playlist.search(query);
+        long elapsed = System.nanoTime() - startTime;
+        String report = String.format("%d results in %.3f ms over %d tracks",
+                ids == null ? playlist.getTracks().size() : ids.length, elapsed / 1e6, playlist.getTracks().size());
+        listeners.forEach(listener -> listener.onSearch(report));
+        return ids;
+    }
+
+    //Keep the playlist in sync with the songs folder while the app is running.
+    public void startLibraryWatcher(Runnable onLibraryChanged) {
+        playlist.setOnLibraryChanged(onLibraryChanged);
+        playlist.startWatching();
+    }
+
+    //Only the JavaFX engine draws a spectrum.
     public void setSpectrumCanvas(Canvas canvas) {
-        this.spectrumCanvas = canvas;
+        if (engine instanceof FxPlaybackEngine fxEngine) {
+            fxEngine.setSpectrumCanvas(canvas);
+        }
+    }
+
+    //Only the JavaFX engine updates the progress on its own, it slows down while the window is hidden.
+    public void setWindowHidden(boolean hidden) {
+        if (engine instanceof FxPlaybackEngine fxEngine) {
+            fxEngine.setHidden(hidden);
+        }
+    }
+
+    /* Bring back the session of the last launch, called on the FX thread before the window is shown.
+     * The track is cued paused at its saved position, so the media is already open when play is pressed.
+     * Returns false when there was no session (the first track of the library stays current). */
+    public boolean restoreSession() {
+        SessionStore.Session session = sessionStore != null ? sessionStore.load() : null;
+        if (session == null) {
+            return false;
+        }
+        TrackTable trackTable = playlist.getTrackTable();
+        int trackId = trackTable.idOf(session.trackName());
+        Playlist.ShuffleState shuffle = session.shuffleFirstTrack() == null ? null : new Playlist.ShuffleState(
+                session.shuffleSeed(), trackTable.idOf(session.shuffleFirstTrack()), session.shuffleStep());
+        playbackMode = session.playbackMode();
+        playlist.restore(trackId, playbackMode, shuffle);
+        volume = session.volume();
+        mute = session.mute();
+
+        Track track = playlist.getCurrentTrack();
+        if (track == null) {
+            return true;
+        }
+        positionMillis = track.getId() == trackId ? session.positionMillis() : 0;
+        savedPositionMillis = positionMillis;
+        listeners.forEach(listener -> listener.onTrackStarted(track));
+        engine.cue(track, positionMillis);
+        applyVolume();
+        engine.setMute(mute);
+        System.out.printf("Session restored: %s at %.1f s%n", track.getName(), positionMillis / 1000);
+        return true;
+    }
+
+    //Hand the current state to the session writer, the disk is never touched on the calling thread.
+    private void saveSession() {
+        Track track = playlist.getCurrentTrack();
+        if (sessionStore == null || track == null) {
+            return;
+        }
+        Playlist.ShuffleState shuffle = playlist.getShuffleState();
+        savedPositionMillis = positionMillis;
+        sessionStore.save(new SessionStore.Session(track.getName(), positionMillis, playbackMode,
+                shuffle != null ? shuffle.seed() : 0,
+                shuffle != null ? playlist.getTrackTable().getName(shuffle.firstTrackId()) : null,
+                shuffle != null ? shuffle.step() : 0, volume, mute));
+    }
+
+    public double getVolume() {
+        return volume;
+    }
+
+    public boolean isMute() {
+        return mute;
     }
 
     public boolean isSingle() {
@@ -68,196 +227,110 @@ public class AudioPlayer {
         return playbackMode == CYCLE;
     }
 
-    //The Playback mode will use Playlist class to re-manage the Playlist, due to the Playback order is managed by the Playlist.java.
+    //The Playback mode is handed to the Playlist, due to the Playback order is managed by the Playlist.java.
     public void setPlaybackMode(int mode) {
         this.playbackMode = mode;
+        playlist.setPlaybackMode(mode);
+        if (engine.isLoaded()) {
+            preloadNext();
+        }
         if (playbackMode == SHUFFLE) {
-            //Refresh the Playback Playlist and Shuffle Them
-            playlist.saveCurrentTrackIndex();
-            int currentTrackIndex = playlist.getCurrentTrackIndex();
-            playlist.restorePlaylistOrder();
-            playlist.selectTrackAndShuffle(currentTrackIndex);
             System.out.println("Shuffled playback mode activated.");
         } else if (playbackMode == CYCLE) {
-            //Refresh the Playback Playlist in the original Order
-            String currentTrack = playlist.getCurrentTrack();
-            playlist.restorePlaylistOrder();
-            playlist.updateCurrentTrackIndexByName(currentTrack);
             System.out.println("Sequential playback mode activated.");
         } else if (playbackMode == SINGLE) {
-            playlist.switchToSingleTrackPlaylist();
             System.out.println("Single-track loop mode activated.");
         }
+        saveSession();
     }
 
-    // Get the track path, then play the songs. This will make a file check in playlist and then play.
-    public void play(int index) {
-        playlist.setCurrentTrackIndex(index);
-        if (mediaPlayer != null) {
-            mediaPlayer.stop();
-            mediaPlayer.dispose();
-            mediaPlayer = null;
-            if (proTimeline != null) {
-                proTimeline.stop();
-                proTimeline.getKeyFrames().clear();
-            }
-            System.gc();
-        }
+    // Get the current track of the playlist, then let the engine play it.
+    public void play() {
         try {
-            String trackPath = "/songs/" + playlist.getCurrentTrack();
-            URL resource = getClass().getResource(trackPath);
-            if (resource != null) {
-                media = new Media(resource.toString());
-                long startTime = System.currentTimeMillis();
-
-                mediaPlayer = new MediaPlayer(media);
-                mediaPlayer.setOnReady(() -> {
-                    long endTime = System.currentTimeMillis();
-                    long elapsedTime = endTime - startTime;
-                    Perf.updateSongOpenTime(index + 1, elapsedTime / 1000.0);
-
-                    App.updateAlbum((Image) media.getMetadata().get("image"),
-                            (String) media.getMetadata().get("title"),
-                            media.getDuration(), (String) media.getMetadata().get("artist"));
-                    startProgressUpdater();
-                    if (spectrumCanvas != null) {
-                        enableAudioSpectrum();
-                    }
-                    logMemoryUsage();
-                });
-                mediaPlayer.setOnEndOfMedia(this::handleTrackEnd);
-                mediaPlayer.play();
-            } else {
-                System.err.println("Track not found: " + trackPath);
+            Track track = playlist.getCurrentTrack();
+            if (track == null) {
+                System.err.println("The library is empty.");
+                return;
             }
+            listeners.forEach(listener -> listener.onTrackStarted(track));
+            positionMillis = 0;
+            engine.play(track);
+            applyVolume();
+            saveSession();
         } catch (Exception e) {
             System.err.println("Error loading track: " + e.getMessage());
         }
     }
 
-    //This is the Function from the UI, and identify if the playlist should be shuffled after.
-    public void playFromUI(int uiIndex) {
-        if (uiIndex < 0 || uiIndex >= playlist.getFilePlaylist().size()) {
-            System.err.println("Invalid index from UI: " + uiIndex);
+    //Prepare the track that comes next in the current mode, so the switch does not wait for the media to open.
+    //Single mode plays the current track again, which is already open, so nothing is preloaded.
+    private void preloadNext() {
+        int nextId = playlist.peekTrackId(1);
+        Track next = playlist.getTrack(nextId);
+        if (next == null || nextId == playlist.getCurrentTrackId()) {
             return;
         }
+        try {
+            engine.preload(next);
+        } catch (Exception e) {
+            System.err.println("Error preloading track: " + e.getMessage());
+        }
+    }
 
-        if (isShuffle()) {
-            playlist.selectTrackAndShuffle(uiIndex);
-        } else if (isSingle()) {
-            playlist.switchToSingleTrackPlaylist(uiIndex);
-        } else {
-            playlist.setCurrentTrackIndex(uiIndex);
+    //This is the Function from the UI, and identify if the playlist should be shuffled after.
+    public void playFromUI(int trackId) {
+        if (playlist.getPosition(trackId) == -1) {
+            System.err.println("Invalid track from UI: " + trackId);
+            return;
         }
-        play(playlist.getCurrentTrackIndex());
+        playlist.selectTrack(trackId);
+        play();
     }
 
-    //Simply use Media Player's play for resume.
     public void resume() {
-        if (mediaPlayer != null) {
-            mediaPlayer.play();
-        }
+        engine.resume();
     }
 
-    //Simply use Media Player's pause.
     public void pause() {
-        if (mediaPlayer != null) {
-            mediaPlayer.pause();
-        }
+        engine.pause();
+        saveSession();
     }
 
-    //Use the playlist order for the next function
+    //Use the playlist order for the next function, returns the id of the track now playing
     public int playNext() {
-        // Stop and dispose the old media player
-        if (mediaPlayer != null) {
-            mediaPlayer.stop();
-            mediaPlayer.dispose();
-            mediaPlayer = null;
-            System.gc();  // Request garbage collection to free memory
-        }
-        playlist.saveCurrentTrackIndex();
         playlist.nextTrack();
-        play(playlist.getCurrentTrackIndex());
-        return playlist.getCurrentTrackIndex();
+        play();
+        return playlist.getCurrentTrackId();
     }
 
     public int playPrevious() {
-        // Stop and dispose the old media player
-        if (mediaPlayer != null) {
-            mediaPlayer.stop();
-            mediaPlayer.dispose();
-            mediaPlayer = null;
-            System.gc();  // Request garbage collection to free memory
-        }
         playlist.previousTrack();
-        play(playlist.getCurrentTrackIndex());
-        return playlist.getCurrentTrackIndex();
-    }
-
-    //The AudioSpectrum are using the AudioSpectrum from JavaFX Media Player.
-    public void enableAudioSpectrum() {
-        if (mediaPlayer != null && spectrumCanvas != null) {
-            magnitudeQueue.clear();
-            mediaPlayer.setAudioSpectrumInterval(1.0 / 60.0);
-            mediaPlayer.setAudioSpectrumNumBands(20);
-            mediaPlayer.setAudioSpectrumThreshold(-60);
-
-            GraphicsContext gc = spectrumCanvas.getGraphicsContext2D();
-            mediaPlayer.setAudioSpectrumListener((_, _, magnitudes, _) -> {
-
-                float[] magnitudesCopy = new float[magnitudes.length];
-                System.arraycopy(magnitudes, 0, magnitudesCopy, 0, magnitudes.length);
-
-                magnitudeQueue.offer(magnitudesCopy);
-                if (magnitudeQueue.size() > DELAY_FRAMES) {
-                    float[] delayedMagnitudes = magnitudeQueue.poll();
-
-                    Platform.runLater(() -> {
-                        gc.clearRect(0, 0, spectrumCanvas.getWidth(), spectrumCanvas.getHeight());
-                        double width = spectrumCanvas.getWidth() / delayedMagnitudes.length;
-
-                        for (int i = 0; i < delayedMagnitudes.length; i++) {
-                            double height = Math.max(0,
-                                    (spectrumCanvas.getHeight()) * ((delayedMagnitudes[i] + 60) / 60.0));
-                            gc.fillRect(i * width, spectrumCanvas.getHeight() - height, width - 2, height);
-                        }
-                    });
-                }
-            });
-        } else if (spectrumCanvas == null) {
-            System.err.println("Spectrum Canvas is not set.");
-        } else {
-            System.err.println("MediaPlayer is null. Cannot enable audio spectrum.");
-        }
+        play();
+        return playlist.getCurrentTrackId();
     }
 
-    private void startProgressUpdater() {
-        if (proTimeline != null) {
-            proTimeline.stop();
-        }
-        proTimeline = new Timeline(new KeyFrame(Duration.seconds(0.01), _ -> {
-            if (mediaPlayer != null) {
-                Duration currentTime = mediaPlayer.getCurrentTime();
-                Duration totalDuration = mediaPlayer.getTotalDuration();
-                if (currentTime != null && totalDuration != null && totalDuration.greaterThan(Duration.ZERO)) {
-                    double progress = currentTime.toMillis() / totalDuration.toMillis();
-                    Platform.runLater(() -> {
-                        App.updatePlayProgress(progress);
-                        App.updateCurrentTime(currentTime);
-                    });
-                }
-            }
-        }));
-        proTimeline.setCycleCount(Timeline.INDEFINITE);
-        proTimeline.play();
-    }
-
-    private void startMemoryMonitoring() {
-        ScheduledExecutorService memoryMonitorExecutor = Executors.newScheduledThreadPool(1);
-        memoryMonitorExecutor.scheduleAtFixedRate(() -> {
+    //The only monitor thread of the app, it feeds both the memory label and the memory chart,
+    //and measures the share of each second the FX thread spent on the CPU.
+    private void startMemoryMonitoring(long fxThreadId) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long[] lastCpuTime = {threads.getThreadCpuTime(fxThreadId), System.nanoTime()};
+        monitorExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "memory-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        monitorExecutor.scheduleAtFixedRate(() -> {
             long usedMemory = getUsedMemory();
-            Platform.runLater(() -> Perf.updateMemoryUsage(usedMemory + " MB"));
-        }, 0, 1, TimeUnit.SECONDS); // memory usage updates in every 0.5 sec
+            long cpuTime = threads.getThreadCpuTime(fxThreadId);
+            long now = System.nanoTime();
+            double fxLoad = cpuTime < 0 ? -1 : 100.0 * (cpuTime - lastCpuTime[0]) / (now - lastCpuTime[1]);
+            lastCpuTime[0] = cpuTime;
+            lastCpuTime[1] = now;
+            Platform.runLater(() -> listeners.forEach(listener -> {
+                listener.onMemoryUsage(usedMemory);
+                listener.onFxThreadLoad(fxLoad);
+            }));
+        }, 0, 1, TimeUnit.SECONDS); // memory usage updates every second
     }
 
     private long getUsedMemory() {
@@ -271,34 +344,107 @@ public class AudioPlayer {
     }
 
     //Offer a way to jump to a point of the track according to the progress.
+    //The scanned duration is used when there is one, the engine only estimates the duration of VBR files.
     public void jumpToProgress(double progress) {
-        if (mediaPlayer != null && mediaPlayer.getTotalDuration() != null) {
-            Duration totalDuration = mediaPlayer.getTotalDuration();
-            mediaPlayer.seek(totalDuration.multiply(progress));
+        Track track = playlist.getCurrentTrack();
+        double engineMillis = engine.getTotalMillis();
+        double totalMillis = durationOf(track, engineMillis);
+        if (totalMillis <= 0) {
+            return;
         }
+        double targetMillis = engineTime(track, totalMillis * Math.max(0, Math.min(progress, 1)), totalMillis, engineMillis);
+        engine.seek(targetMillis);
+        positionMillis = targetMillis;
+        saveSession();
     }
 
-    //When the song coming to end, automatically calls the play next.
-    private void handleTrackEnd() {
-        playNext();
+    //The engine time to seek to for a time of the scanned duration. An engine that got the duration of a VBR file wrong
+    //estimates times from the average bitrate, so its time follows the byte position: the seek table gives the offset
+    //of the target and the engine is sent to the same share of its own duration.
+    private static double engineTime(Track track, double targetMillis, double totalMillis, double engineMillis) {
+        if (engineMillis <= 0 || Math.abs(engineMillis - totalMillis) <= totalMillis * 0.02) {
+            return Math.min(targetMillis, engineMillis > 0 ? engineMillis : totalMillis);
+        }
+        long[] seekTable = track.getSeekTable();
+        long offset = Mp3Scanner.offsetAt(seekTable, track.getDurationMillis(), track.getSize(), targetMillis);
+        long audioBytes = offset < 0 ? 0 : track.getSize() - seekTable[0];
+        if (audioBytes <= 0) {
+            return targetMillis * engineMillis / totalMillis;
+        }
+        double share = (double) (offset - seekTable[0]) / audioBytes;
+        return Math.max(0, Math.min(share, 1)) * engineMillis;
+    }
+
+    //The scanned duration of the track, or the engine's when the track was not scanned.
+    private static double durationOf(Track track, double engineMillis) {
+        if (track != null && track.getSeekTable().length > 0 && track.getDurationMillis() > 0) {
+            return track.getDurationMillis();
+        }
+        return engineMillis;
     }
 
     public boolean noTrack() {
-        return mediaPlayer == null ||
-                mediaPlayer.getMedia() == null ||
-                mediaPlayer.getStatus() == MediaPlayer.Status.UNKNOWN ||
-                mediaPlayer.getStatus() == MediaPlayer.Status.DISPOSED;
+        return !engine.isLoaded();
     }
 
     public void setVolume(double volume) {
-        if (mediaPlayer != null) {
-            mediaPlayer.setVolume(volume);
-        }
+        this.volume = volume;
+        applyVolume();
+        saveSession();
+    }
+
+    private void applyVolume() {
+        Track track = playlist.getCurrentTrack();
+        double factor = NORMALIZE && track != null
+                ? AudioAnalyzer.volumeFactor(track.getAnalysis(), playlist.getReferenceLoudness()) : 1;
+        engine.setVolume(volume * factor);
     }
 
     public void setMute(boolean mute) {
-        if (mediaPlayer != null) {
-            mediaPlayer.setMute(mute);
+        this.mute = mute;
+        engine.setMute(mute);
+        saveSession();
+    }
+
+    //Hands the engine events to the listeners, a finished track moves on to the next one.
+    private class EngineEvents implements PlaybackListener {
+        @Override
+        public void onOpened(Track track, double seconds, boolean prepared) {
+            listeners.forEach(listener -> listener.onOpened(track, seconds, prepared));
+        }
+
+        @Override
+        public void onReady(Track track, MediaInfo info) {
+            MediaInfo scanned = new MediaInfo(durationOf(track, info.durationMillis()), info.title(), info.artist(), info.image());
+            listeners.forEach(listener -> listener.onReady(track, scanned));
+            if (DEBUG) {
+                logMemoryUsage();
+            }
+            preloadNext();
+        }
+
+        @Override
+        public void onProgress(double currentMillis, double totalMillis) {
+            double duration = durationOf(playlist.getCurrentTrack(), totalMillis);
+            for (PlaybackListener listener : listeners) {
+                listener.onProgress(currentMillis, duration);
+            }
+            positionMillis = currentMillis;
+            if (Math.abs(currentMillis - savedPositionMillis) >= SESSION_POSITION_INTERVAL) {
+                saveSession();
+            }
+        }
+
+        //When the song coming to end, automatically calls the play next.
+        @Override
+        public void onEndOfTrack(Track track) {
+            listeners.forEach(listener -> listener.onEndOfTrack(track));
+            playNext();
+        }
+
+        @Override
+        public void onPlayerPool(String report) {
+            listeners.forEach(listener -> listener.onPlayerPool(report));
         }
     }
 }
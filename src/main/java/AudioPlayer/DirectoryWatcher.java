@@ -0,0 +1,115 @@
+package AudioPlayer;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/* DirectoryWatcher turns the file system events of one folder into batches.
+ * Events are collected until the folder has been quiet for DEBOUNCE_MS (or MAX_BATCH_DELAY_MS passed),
+ * so copying thousands of files results in a few batches instead of one update per file.
+ * The listener is called on the watcher thread. */
+public class DirectoryWatcher {
+    private static final long DEBOUNCE_MS = 500;
+    private static final long MAX_BATCH_DELAY_MS = 2000;
+    private final Path dir;
+    private final Listener listener;
+    private final Set<String> added = new HashSet<>();
+    private final Set<String> removed = new HashSet<>();
+    private boolean overflow = false;
+    private long batchStart;
+    private WatchService watchService;
+
+    public DirectoryWatcher(Path dir, Listener listener) {
+        this.dir = dir;
+        this.listener = listener;
+    }
+
+    public void start() {
+        try {
+            watchService = dir.getFileSystem().newWatchService();
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.err.println("Error watching " + dir + ": " + e.getMessage());
+            return;
+        }
+        Thread thread = new Thread(this::watchLoop, "watcher-" + dir.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                System.err.println("Error closing the watcher: " + e.getMessage());
+            }
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                boolean pending = !added.isEmpty() || !removed.isEmpty() || overflow;
+                WatchKey key = pending ? watchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS) : watchService.take();
+                if (key != null) {
+                    if (!pending) {
+                        batchStart = System.currentTimeMillis();
+                    }
+                    collect(key);
+                    key.reset();
+                }
+                boolean quiet = key == null;
+                if (quiet || System.currentTimeMillis() - batchStart >= MAX_BATCH_DELAY_MS) {
+                    flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // stop() was called
+        }
+    }
+
+    //A file created then deleted in the same batch ends as a removal, a deleted then created file as a change.
+    private void collect(WatchKey key) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            String name = ((Path) event.context()).getFileName().toString();
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                added.remove(name);
+                removed.add(name);
+            } else {
+                added.add(name);
+            }
+        }
+    }
+
+    private void flush() {
+        if (added.isEmpty() && removed.isEmpty() && !overflow) {
+            return;
+        }
+        Set<String> addedBatch = new HashSet<>(added);
+        Set<String> removedBatch = new HashSet<>(removed);
+        boolean overflowBatch = overflow;
+        added.clear();
+        removed.clear();
+        overflow = false;
+        try {
+            listener.onChanges(addedBatch, removedBatch, overflowBatch);
+        } catch (RuntimeException e) {
+            System.err.println("Error applying changes of " + dir + ": " + e.getMessage());
+        }
+    }
+
+    //added holds created or modified names, removed the deleted names, overflow means events were lost and the folder should be listed again.
+    public interface Listener {
+        void onChanges(Set<String> added, Set<String> removed, boolean overflow);
+    }
+}
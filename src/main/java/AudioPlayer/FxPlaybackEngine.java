@@ -0,0 +1,265 @@
+package AudioPlayer;
+
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaPlayer;
+import javafx.util.Duration;
+
+/* FxPlaybackEngine plays the tracks with the JavaFX MediaPlayer, used on the FX thread.
+ * Prepared players are kept in a PlayerPool.
+ * One AnimationTimer runs while a track plays: each pulse it reads the progress (once per second while the window
+ * is hidden) and only sends it to the listener when the media time moved, and it draws the newest spectrum frame.
+ * Spectrum frames are written into a ring of preallocated arrays, the DELAY_FRAMES delay is an index difference. */
+public class FxPlaybackEngine implements PlaybackEngine {
+    private static final int DELAY_FRAMES = 3;
+    private static final int SPECTRUM_BANDS = 20;
+    // room for the delayed frame, the frames after it and some slack
+    private static final int SPECTRUM_RING_SIZE = DELAY_FRAMES + 5;
+    private static final long HIDDEN_PROGRESS_INTERVAL = 1_000_000_000L;
+    // prepared players kept for previous / replay / preloading, by count and by estimated size
+    private static final int PLAYER_POOL_SIZE = Integer.getInteger("player.pool.size", 4);
+    private static final long PLAYER_POOL_MEMORY = Long.getLong("player.pool.memory", 128L * 1024 * 1024);
+    private final PlayerPool playerPool = new PlayerPool(PLAYER_POOL_SIZE, PLAYER_POOL_MEMORY);
+    private final float[][] spectrumFrames = new float[SPECTRUM_RING_SIZE][SPECTRUM_BANDS];
+    // frames written by the spectrum listener and the index of the last drawn frame
+    private volatile long framesWritten = 0;
+    private long framesDrawn = -1;
+    private PlaybackListener listener = new PlaybackListener() {
+    };
+    private MediaPlayer mediaPlayer;
+    // the library entry of the track in mediaPlayer
+    private Track playingTrack;
+    private Canvas spectrumCanvas;
+    private boolean hidden = false;
+    private double lastProgressMillis = -1;
+    private final AnimationTimer pulseTimer = new AnimationTimer() {
+        private long lastUpdate = 0;
+
+        @Override
+        public void handle(long now) {
+            if (hidden && now - lastUpdate < HIDDEN_PROGRESS_INTERVAL) {
+                return;
+            }
+            lastUpdate = now;
+            updateProgress();
+            if (!hidden) {
+                drawSpectrum();
+            }
+        }
+    };
+
+    @Override
+    public void setListener(PlaybackListener listener) {
+        this.listener = listener;
+    }
+
+    public void setSpectrumCanvas(Canvas canvas) {
+        this.spectrumCanvas = canvas;
+    }
+
+    //While the window is hidden the progress is only read once per second.
+    public void setHidden(boolean hidden) {
+        this.hidden = hidden;
+    }
+
+    // The old player goes back to the pool, a pooled (preloaded or recently played) player of the track is reused.
+    @Override
+    public boolean play(Track track) {
+        MediaPlayer player = open(track, -1);
+        if (player == null) {
+            return false;
+        }
+        player.play();
+        return true;
+    }
+
+    //Once the media is ready the player is paused and seeked, so the first resume plays from the position at once.
+    @Override
+    public void cue(Track track, double millis) {
+        open(track, Math.max(0, millis));
+    }
+
+    //Make the track the current one, cueMillis is the position to wait at, -1 when it starts playing.
+    private MediaPlayer open(Track track, double cueMillis) {
+        long startTime = System.nanoTime();
+        if (mediaPlayer != null) {
+            playerPool.release(playingTrack, mediaPlayer);
+            mediaPlayer = null;
+            playingTrack = null;
+            pulseTimer.stop();
+        }
+        boolean prepared = playerPool.contains(track);
+        MediaPlayer player = playerPool.acquire(track);
+        listener.onPlayerPool(playerPool.getReport());
+        if (player == null) {
+            return null;
+        }
+        mediaPlayer = player;
+        playingTrack = track;
+        mediaPlayer.setOnEndOfMedia(() -> listener.onEndOfTrack(track));
+        MediaPlayer.Status status = player.getStatus();
+        if (status == MediaPlayer.Status.READY || status == MediaPlayer.Status.STOPPED) {
+            onPlayerReady(track, player, startTime, true, cueMillis);
+        } else {
+            mediaPlayer.setOnReady(() -> onPlayerReady(track, player, startTime, prepared, cueMillis));
+        }
+        return player;
+    }
+
+    private void onPlayerReady(Track track, MediaPlayer player, long startTime, boolean prepared, double cueMillis) {
+        listener.onOpened(track, (System.nanoTime() - startTime) / 1e9, prepared);
+
+        Media media = player.getMedia();
+        listener.onReady(track, new PlaybackListener.MediaInfo(media.getDuration().toMillis(),
+                (String) media.getMetadata().get("title"), (String) media.getMetadata().get("artist"),
+                (Image) media.getMetadata().get("image")));
+        if (cueMillis >= 0 && player == mediaPlayer && player.getStatus() != MediaPlayer.Status.PLAYING) {
+            // a seek only moves a paused or playing player
+            player.pause();
+            player.seek(Duration.millis(cueMillis));
+            listener.onProgress(cueMillis, media.getDuration().toMillis());
+        } else {
+            startProgressUpdater();
+        }
+        if (spectrumCanvas != null) {
+            enableAudioSpectrum();
+        }
+    }
+
+    @Override
+    public void preload(Track track) {
+        playerPool.prepare(track);
+        listener.onPlayerPool(playerPool.getReport());
+    }
+
+    //Simply use Media Player's play for resume.
+    @Override
+    public void resume() {
+        if (mediaPlayer != null) {
+            mediaPlayer.play();
+            startProgressUpdater();
+        }
+    }
+
+    //Simply use Media Player's pause.
+    @Override
+    public void pause() {
+        if (mediaPlayer != null) {
+            mediaPlayer.pause();
+            pulseTimer.stop();
+        }
+    }
+
+    @Override
+    public void seek(double millis) {
+        if (mediaPlayer != null) {
+            mediaPlayer.seek(Duration.millis(millis));
+        }
+    }
+
+    @Override
+    public double getTotalMillis() {
+        if (mediaPlayer == null || mediaPlayer.getTotalDuration() == null) {
+            return 0;
+        }
+        double total = mediaPlayer.getTotalDuration().toMillis();
+        return Double.isFinite(total) ? total : 0;
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return mediaPlayer != null &&
+                mediaPlayer.getMedia() != null &&
+                mediaPlayer.getStatus() != MediaPlayer.Status.UNKNOWN &&
+                mediaPlayer.getStatus() != MediaPlayer.Status.DISPOSED;
+    }
+
+    @Override
+    public void setVolume(double volume) {
+        if (mediaPlayer != null) {
+            mediaPlayer.setVolume(volume);
+        }
+    }
+
+    @Override
+    public void setMute(boolean mute) {
+        if (mediaPlayer != null) {
+            mediaPlayer.setMute(mute);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        pulseTimer.stop();
+        if (mediaPlayer != null) {
+            mediaPlayer.dispose();
+            mediaPlayer = null;
+        }
+        playerPool.clear();
+    }
+
+    //The AudioSpectrum are using the AudioSpectrum from JavaFX Media Player.
+    //Each callback copies its magnitudes into the next preallocated frame of the ring, nothing is allocated per frame.
+    private void enableAudioSpectrum() {
+        if (mediaPlayer != null && spectrumCanvas != null) {
+            framesWritten = 0;
+            framesDrawn = -1;
+            mediaPlayer.setAudioSpectrumInterval(1.0 / 60.0);
+            mediaPlayer.setAudioSpectrumNumBands(SPECTRUM_BANDS);
+            mediaPlayer.setAudioSpectrumThreshold(-60);
+            mediaPlayer.setAudioSpectrumListener((_, _, magnitudes, _) -> {
+                float[] frame = spectrumFrames[(int) (framesWritten % SPECTRUM_RING_SIZE)];
+                System.arraycopy(magnitudes, 0, frame, 0, Math.min(magnitudes.length, SPECTRUM_BANDS));
+                framesWritten++;
+            });
+        } else if (spectrumCanvas == null) {
+            System.err.println("Spectrum Canvas is not set.");
+        } else {
+            System.err.println("MediaPlayer is null. Cannot enable audio spectrum.");
+        }
+    }
+
+    //Draw the newest frame that is DELAY_FRAMES old, older frames that were not drawn in time are skipped.
+    private void drawSpectrum() {
+        long frameIndex = framesWritten - 1 - DELAY_FRAMES;
+        if (spectrumCanvas == null || frameIndex < 0 || frameIndex == framesDrawn) {
+            return;
+        }
+        framesDrawn = frameIndex;
+        float[] magnitudes = spectrumFrames[(int) (frameIndex % SPECTRUM_RING_SIZE)];
+        GraphicsContext gc = spectrumCanvas.getGraphicsContext2D();
+        double canvasHeight = spectrumCanvas.getHeight();
+        gc.clearRect(0, 0, spectrumCanvas.getWidth(), canvasHeight);
+        double width = spectrumCanvas.getWidth() / SPECTRUM_BANDS;
+
+        for (int i = 0; i < SPECTRUM_BANDS; i++) {
+            double height = Math.max(0, canvasHeight * ((magnitudes[i] + 60) / 60.0));
+            gc.fillRect(i * width, canvasHeight - height, width - 2, height);
+        }
+    }
+
+    private void startProgressUpdater() {
+        lastProgressMillis = -1;
+        pulseTimer.start();
+    }
+
+    //Called by the progress timer on the FX thread, nothing is sent while the media time stands still.
+    private void updateProgress() {
+        if (mediaPlayer == null) {
+            return;
+        }
+        Duration currentTime = mediaPlayer.getCurrentTime();
+        Duration totalDuration = mediaPlayer.getTotalDuration();
+        if (currentTime == null || totalDuration == null || !totalDuration.greaterThan(Duration.ZERO)) {
+            return;
+        }
+        double currentMillis = currentTime.toMillis();
+        if (currentMillis != lastProgressMillis) {
+            lastProgressMillis = currentMillis;
+            listener.onProgress(currentMillis, totalDuration.toMillis());
+        }
+    }
+}
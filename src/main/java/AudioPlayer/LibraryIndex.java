@@ -0,0 +1,270 @@
+package AudioPlayer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/* LibraryIndex keeps the scanned library in a compact binary file, so a launch does not have to rescan the songs folder.
+ * File layout: header (magic, version, folder modified time, last full scan time, track count)
+ * followed by one record per track (name, size, modified time, tags read flag, title, artist, album, duration,
+ * seek table length and offsets).
+ * The file is read through a memory mapped buffer and written to a temp file, then moved over the old index. */
+public class LibraryIndex {
+    private static final int MAGIC = 0x4D505349; // "MPSI"
+    private static final int VERSION = 3;
+    private final Path songsDir;
+    private final Path indexFile;
+    private final Map<String, Track> tracks = new TreeMap<>();
+    private long dirModified = -1;
+    private long fullScanNanos = -1;
+    private String loadReport = "-";
+
+    public LibraryIndex(Path songsDir, Path indexFile) {
+        this.songsDir = songsDir;
+        this.indexFile = indexFile;
+    }
+
+    //Load the library. While the songs folder was not touched since the index was written no file was added, removed
+    //or renamed, but a file rewritten in place leaves the folder time alone, so each entry is checked against its file.
+    //Otherwise the folder is listed again. Either way only the new or changed files lose their stored metadata.
+    public synchronized List<Track> load() {
+        long startTime = System.nanoTime();
+        boolean indexRead = readIndex();
+        long currentDirModified = getDirModified();
+
+        String mode;
+        if (indexRead && currentDirModified == dirModified) {
+            int changed = verifyTracks();
+            if (changed > 0) {
+                save();
+            }
+            mode = "from index, " + changed + " changed";
+        } else {
+            long scanStart = System.nanoTime();
+            int changed = rescan();
+            fullScanNanos = System.nanoTime() - scanStart;
+            dirModified = currentDirModified;
+            save();
+            mode = indexRead ? "incremental rescan, " + changed + " changed" : "full scan";
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+        loadReport = String.format("%d tracks in %.1f ms (%s), last full scan %.1f ms",
+                tracks.size(), elapsed / 1e6, mode, fullScanNanos / 1e6);
+        System.out.println("Library loaded: " + loadReport);
+        return new ArrayList<>(tracks.values());
+    }
+
+    //Apply a batch of folder changes (from the DirectoryWatcher) and save the index.
+    //Only the named files are read again, unless events were lost and the folder has to be listed.
+    public synchronized Changes applyChanges(Set<String> added, Set<String> removed, boolean overflow) {
+        Map<String, Track> before = new HashMap<>(tracks);
+        if (overflow) {
+            rescan();
+        } else {
+            for (String name : removed) {
+                tracks.remove(name);
+            }
+            for (String name : added) {
+                updateTrack(name);
+            }
+        }
+        dirModified = getDirModified();
+        save();
+
+        List<Track> updated = new ArrayList<>();
+        Set<String> gone = new HashSet<>();
+        for (Track track : tracks.values()) {
+            Track old = before.get(track.getName());
+            if (old != track) {
+                updated.add(track);
+                if (old != null) {
+                    gone.add(track.getName());
+                }
+            }
+        }
+        for (String name : before.keySet()) {
+            if (!tracks.containsKey(name)) {
+                gone.add(name);
+            }
+        }
+        return new Changes(updated, gone);
+    }
+
+    public String getLoadReport() {
+        return loadReport;
+    }
+
+    //Write the current tracks back to disk, called after a rescan or when metadata changed.
+    public synchronized void save() {
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(dirModified);
+            out.writeLong(fullScanNanos);
+            out.writeInt(tracks.size());
+            for (Track track : tracks.values()) {
+                writeString(out, track.getName());
+                out.writeLong(track.getSize());
+                out.writeLong(track.getModified());
+                out.writeBoolean(track.isTagsRead());
+                writeString(out, track.getTitle());
+                writeString(out, track.getArtist());
+                writeString(out, track.getAlbum());
+                out.writeLong(track.getDurationMillis());
+                out.writeInt(track.getSeekTable().length);
+                for (long offset : track.getSeekTable()) {
+                    out.writeLong(offset);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing the library index: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error replacing the library index: " + e.getMessage());
+        }
+    }
+
+    private boolean readIndex() {
+        if (!Files.isRegularFile(indexFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                System.out.println("Library index has an unknown format, rescanning.");
+                return false;
+            }
+            dirModified = buffer.getLong();
+            fullScanNanos = buffer.getLong();
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                Track track = new Track(readString(buffer), buffer.getLong(), buffer.getLong());
+                track.setTagsRead(buffer.get() != 0);
+                track.setTitle(readString(buffer));
+                track.setArtist(readString(buffer));
+                track.setAlbum(readString(buffer));
+                track.setDurationMillis(buffer.getLong());
+                long[] seekTable = new long[buffer.getInt()];
+                for (int j = 0; j < seekTable.length; j++) {
+                    seekTable[j] = buffer.getLong();
+                }
+                track.setSeekTable(seekTable);
+                tracks.put(track.getName(), track);
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading the library index: " + e.getMessage());
+            tracks.clear();
+            return false;
+        }
+    }
+
+    //List the songs folder, keep the stored entries of unchanged files and return how many entries were added or replaced.
+    private int rescan() {
+        Map<String, Track> scanned = new TreeMap<>();
+        int changed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(songsDir)) {
+            for (Path file : files) {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) {
+                    continue;
+                }
+                String name = file.getFileName().toString();
+                long size = attributes.size();
+                long modified = attributes.lastModifiedTime().toMillis();
+                Track known = tracks.get(name);
+                if (known != null && known.isSameFile(size, modified)) {
+                    scanned.put(name, known);
+                } else {
+                    scanned.put(name, new Track(name, size, modified));
+                    changed++;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading the songs directory: " + e.getMessage());
+        }
+        tracks.clear();
+        tracks.putAll(scanned);
+        return changed;
+    }
+
+    //Stat the file of each stored entry, return how many entries were replaced or removed.
+    private int verifyTracks() {
+        int changed = 0;
+        for (String name : new ArrayList<>(tracks.keySet())) {
+            Track known = tracks.get(name);
+            updateTrack(name);
+            if (tracks.get(name) != known) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    //Stat one file of the songs folder, a missing or non regular file is removed from the index.
+    private void updateTrack(String name) {
+        Path file = songsDir.resolve(name);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                tracks.remove(name);
+                return;
+            }
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            Track known = tracks.get(name);
+            if (known == null || !known.isSameFile(size, modified)) {
+                tracks.put(name, new Track(name, size, modified));
+            }
+        } catch (IOException e) {
+            tracks.remove(name);
+        }
+    }
+
+    private long getDirModified() {
+        try {
+            return Files.getLastModifiedTime(songsDir).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    //updated holds the new or replaced tracks in name order, removed the names whose old entry is gone (replaced names included).
+    public record Changes(List<Track> updated, Set<String> removed) {
+        public boolean isEmpty() {
+            return updated.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,83 @@
+package AudioPlayer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/* MetadataExtractor reads the tags of many tracks in parallel on a bounded ForkJoinPool,
+ * so the library knows titles, artists and durations without opening every track in a MediaPlayer.
+ * The duration and seek table come from the Mp3Scanner, the TLEN tag is only used when the file has no MPEG frames. */
+public class MetadataExtractor {
+    private static final int BATCH_SIZE = 64;
+    private final Path songsDir;
+    private final ForkJoinPool pool;
+
+    public MetadataExtractor(Path songsDir, int parallelism) {
+        this.songsDir = songsDir;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    //Read the tags of the tracks that were not read yet, blocks until done and returns the tracks per second.
+    public double extract(List<Track> tracks) {
+        long startTime = System.nanoTime();
+        pool.invoke(new ExtractAction(tracks, 0, tracks.size()));
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return seconds > 0 ? tracks.size() / seconds : 0;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private void readTags(Track track) {
+        if (track.isTagsRead()) {
+            return;
+        }
+        try {
+            TagReader.Tags tags = TagReader.read(songsDir.resolve(track.getName()), false);
+            track.setTitle(tags.title());
+            track.setArtist(tags.artist());
+            track.setAlbum(tags.album());
+            if (tags.durationMillis() > 0) {
+                track.setDurationMillis(tags.durationMillis());
+            }
+            Mp3Scanner.Scan scan = Mp3Scanner.scan(songsDir.resolve(track.getName()));
+            if (scan.durationMillis() > 0) {
+                track.setDurationMillis(scan.durationMillis());
+                track.setSeekTable(scan.seekTable());
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading tags of " + track.getName() + ": " + e.getMessage());
+        }
+        track.setTagsRead(true);
+    }
+
+    //Split the list in halves until a batch is small enough to be read by one worker.
+    //ForkJoinTask is Serializable, but the actions are never serialized.
+    @SuppressWarnings("serial")
+    private class ExtractAction extends RecursiveAction {
+        private final List<Track> tracks;
+        private final int from;
+        private final int to;
+
+        ExtractAction(List<Track> tracks, int from, int to) {
+            this.tracks = tracks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SIZE) {
+                for (int i = from; i < to; i++) {
+                    readTags(tracks.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ExtractAction(tracks, from, middle), new ExtractAction(tracks, middle, to));
+        }
+    }
+}
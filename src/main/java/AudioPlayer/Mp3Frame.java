@@ -0,0 +1,138 @@
+package AudioPlayer;
+
+import java.nio.ByteBuffer;
+
+/* Mp3Frame is the 4 byte header of an MPEG audio frame (MPEG 1, 2 and 2.5, layers I to III), decoded into its fields.
+ * The header gives the frame length, so a file can be walked frame by frame without decoding any audio,
+ * and for layer III the side info that follows it gives the global gain of every granule. */
+public record Mp3Frame(int version, int layer, boolean crc, int bitrate, int sampleRate, boolean padding, int channels) {
+    public static final int MPEG1 = 1;
+    public static final int MPEG2 = 2;
+    public static final int MPEG25 = 3;
+    private static final int[][] BITRATES = {
+            {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448}, // MPEG 1 layer I
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},    // MPEG 1 layer II
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},     // MPEG 1 layer III
+            {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},    // MPEG 2 / 2.5 layer I
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}          // MPEG 2 / 2.5 layer II and III
+    };
+    private static final int[][] SAMPLE_RATES = {{44100, 48000, 32000}, {22050, 24000, 16000}, {11025, 12000, 8000}};
+
+    //null when the 4 bytes are not a valid frame header (no sync, reserved or free format values).
+    public static Mp3Frame parse(int header) {
+        if ((header & 0xFFE00000) != 0xFFE00000) {
+            return null;
+        }
+        int versionBits = header >>> 19 & 3;
+        int layerBits = header >>> 17 & 3;
+        int bitrateIndex = header >>> 12 & 15;
+        int sampleRateIndex = header >>> 10 & 3;
+        if (versionBits == 1 || layerBits == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return null;
+        }
+        int version = versionBits == 3 ? MPEG1 : versionBits == 2 ? MPEG2 : MPEG25;
+        int layer = 4 - layerBits;
+        int table = version == MPEG1 ? layer - 1 : layer == 1 ? 3 : 4;
+        return new Mp3Frame(version, layer, (header >>> 16 & 1) == 0, BITRATES[table][bitrateIndex] * 1000,
+                SAMPLE_RATES[version - 1][sampleRateIndex], (header >>> 9 & 1) == 1, (header >>> 6 & 3) == 3 ? 1 : 2);
+    }
+
+    //Header of the frame starting at this position of the buffer, null when there is none.
+    public static Mp3Frame at(ByteBuffer buffer, int position) {
+        return position + 4 <= buffer.limit() ? parse(buffer.getInt(position)) : null;
+    }
+
+    //Size of the ID3v2 tag at the start of the file, 0 when there is none.
+    public static int id3v2Length(ByteBuffer buffer) {
+        if (buffer.limit() < 10 || buffer.get(0) != 'I' || buffer.get(1) != 'D' || buffer.get(2) != '3') {
+            return 0;
+        }
+        int size = (buffer.get(6) & 0x7F) << 21 | (buffer.get(7) & 0x7F) << 14 | (buffer.get(8) & 0x7F) << 7 | buffer.get(9) & 0x7F;
+        boolean footer = (buffer.get(5) & 0x10) != 0;
+        return 10 + size + (footer ? 10 : 0);
+    }
+
+    //The first position from start where a frame header is followed by another one, -1 when there is none.
+    public static int find(ByteBuffer buffer, int start) {
+        for (int position = start; position + 4 <= buffer.limit(); position++) {
+            if ((buffer.get(position) & 0xFF) != 0xFF) {
+                continue;
+            }
+            Mp3Frame frame = at(buffer, position);
+            if (frame == null) {
+                continue;
+            }
+            int next = position + frame.length();
+            if (next + 4 > buffer.limit() || at(buffer, next) != null) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    //Length of the whole frame in bytes, header included.
+    public int length() {
+        int pad = padding ? 1 : 0;
+        if (layer == 1) {
+            return (12 * bitrate / sampleRate + pad) * 4;
+        }
+        int factor = layer == 3 && version != MPEG1 ? 72 : 144;
+        return factor * bitrate / sampleRate + pad;
+    }
+
+    public int samplesPerFrame() {
+        if (layer == 1) {
+            return 384;
+        }
+        return layer == 3 && version != MPEG1 ? 576 : 1152;
+    }
+
+    //Granules of a layer III frame, each carries one global gain per channel.
+    public int granules() {
+        return version == MPEG1 ? 2 : 1;
+    }
+
+    //Offset of the layer III side info from the start of the frame.
+    public int sideInfoOffset() {
+        return crc ? 6 : 4;
+    }
+
+    public int sideInfoLength() {
+        if (version == MPEG1) {
+            return channels == 1 ? 17 : 32;
+        }
+        return channels == 1 ? 9 : 17;
+    }
+
+    /* Write the global gain (0 - 255) of each granule and channel of a layer III frame to gains, -1 for an empty
+     * granule (no big values, silence). Returns how many were written, 0 when the side info is not in the buffer. */
+    public int readGains(ByteBuffer buffer, int frameStart, int[] gains) {
+        int start = frameStart + sideInfoOffset();
+        if (layer != 3 || start + sideInfoLength() > buffer.limit()) {
+            return 0;
+        }
+        // main_data_begin, private bits and (MPEG 1) the scale factor selection come before the granules
+        int bit = version == MPEG1 ? 9 + (channels == 1 ? 5 : 3) + 4 * channels : 8 + channels;
+        int granuleBits = version == MPEG1 ? 59 : 63;
+        int count = 0;
+        for (int granule = 0; granule < granules(); granule++) {
+            for (int channel = 0; channel < channels; channel++) {
+                int bigValues = bits(buffer, start, bit + 12, 9);
+                int globalGain = bits(buffer, start, bit + 21, 8);
+                gains[count++] = bigValues == 0 ? -1 : globalGain;
+                bit += granuleBits;
+            }
+        }
+        return count;
+    }
+
+    private static int bits(ByteBuffer buffer, int start, int bitOffset, int length) {
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            int position = bitOffset + i;
+            int bit = buffer.get(start + position / 8) >>> (7 - position % 8) & 1;
+            value = value << 1 | bit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,187 @@
+package AudioPlayer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/* Mp3Scanner finds the exact duration of an MP3 file and a seek table, without opening it in a MediaPlayer.
+ * A VBR file usually starts with a Xing / Info header (frame count and a table of contents, plus the encoder delay and
+ * padding in the LAME tag) or a VBRI header, those are used when present. Otherwise every frame header of the memory
+ * mapped file is walked, which only reads 4 bytes per frame.
+ * The seek table holds the byte offset of the audio at 0 %, 1 % ... 99 % of the duration. */
+public class Mp3Scanner {
+    public static final int SEEK_POINTS = 100;
+
+    //durationMillis is 0 and the seek table empty when the file has no MPEG audio frames.
+    public record Scan(long durationMillis, long[] seekTable) {
+    }
+
+    //Byte offset of the audio at this time, interpolated between the seek points (the last one runs to endOffset),
+    //-1 when the table is empty.
+    public static long offsetAt(long[] seekTable, long durationMillis, long endOffset, double millis) {
+        if (seekTable == null || seekTable.length == 0 || durationMillis <= 0) {
+            return -1;
+        }
+        double exact = Math.max(0, Math.min(millis, durationMillis)) * seekTable.length / durationMillis;
+        int point = Math.min((int) exact, seekTable.length - 1);
+        long next = point + 1 < seekTable.length ? seekTable[point + 1] : Math.max(endOffset, seekTable[point]);
+        return seekTable[point] + Math.round((exact - point) * (next - seekTable[point]));
+    }
+
+    public static Scan scan(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), Integer.MAX_VALUE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int first = Mp3Frame.find(buffer, Mp3Frame.id3v2Length(buffer));
+            if (first < 0) {
+                return new Scan(0, new long[0]);
+            }
+            Mp3Frame frame = Mp3Frame.at(buffer, first);
+            Scan scan = readXing(buffer, first, frame);
+            if (scan == null) {
+                scan = readVbri(buffer, first, frame);
+            }
+            return scan != null ? scan : walkFrames(buffer, first);
+        }
+    }
+
+    /* Xing (VBR) or Info (CBR) header after the side info of the first frame:
+     * id, flags, then frame count (flag 1), byte count (flag 2), 100 byte table of contents (flag 4), quality (flag 8).
+     * The LAME tag that may follow has the encoder delay and padding in samples. */
+    private static Scan readXing(ByteBuffer buffer, int first, Mp3Frame frame) {
+        int position = first + frame.sideInfoOffset() + frame.sideInfoLength();
+        String id = ascii(buffer, position, 4);
+        if (!"Xing".equals(id) && !"Info".equals(id) || position + 8 > buffer.limit()) {
+            return null;
+        }
+        int flags = buffer.getInt(position + 4);
+        position += 8;
+        // a truncated header is ignored, the frames are walked instead
+        if ((flags & 1) == 0 || position + 4 > buffer.limit()) {
+            return null;
+        }
+        long frames = buffer.getInt(position) & 0xFFFFFFFFL;
+        position += 4;
+        long audioStart = first + frame.length();
+        long bytes = buffer.limit() - audioStart;
+        if ((flags & 2) != 0) {
+            if (position + 4 > buffer.limit()) {
+                return null;
+            }
+            bytes = buffer.getInt(position) & 0xFFFFFFFFL;
+            position += 4;
+        }
+        long[] seekTable;
+        if ((flags & 4) != 0 && position + 100 <= buffer.limit()) {
+            seekTable = new long[SEEK_POINTS];
+            for (int i = 0; i < SEEK_POINTS; i++) {
+                seekTable[i] = audioStart + (buffer.get(position + i) & 0xFF) * bytes / 256;
+            }
+            position += 100;
+        } else {
+            // without a table of contents the file is taken as constant bitrate
+            seekTable = linearTable(audioStart, bytes);
+        }
+        if ((flags & 8) != 0) {
+            position += 4;
+        }
+
+        long samples = frames * frame.samplesPerFrame();
+        if ("LAME".equals(ascii(buffer, position, 4)) && position + 24 <= buffer.limit()) {
+            int delayAndPadding = (buffer.get(position + 21) & 0xFF) << 16 | (buffer.get(position + 22) & 0xFF) << 8
+                    | buffer.get(position + 23) & 0xFF;
+            samples -= (delayAndPadding >>> 12) + (delayAndPadding & 0xFFF);
+        }
+        return new Scan(Math.max(0, samples) * 1000 / frame.sampleRate(), seekTable);
+    }
+
+    /* VBRI header, 32 bytes after the first frame header: id, version, delay, quality, byte count, frame count,
+     * then a table of contents of byte sizes, each entry covering framesPerEntry frames. */
+    private static Scan readVbri(ByteBuffer buffer, int first, Mp3Frame frame) {
+        int position = first + 4 + 32;
+        if (!"VBRI".equals(ascii(buffer, position, 4)) || position + 26 > buffer.limit()) {
+            return null;
+        }
+        long frames = buffer.getInt(position + 14) & 0xFFFFFFFFL;
+        int entries = buffer.getShort(position + 18) & 0xFFFF;
+        int scale = buffer.getShort(position + 20) & 0xFFFF;
+        int entrySize = buffer.getShort(position + 22) & 0xFFFF;
+        int framesPerEntry = buffer.getShort(position + 24) & 0xFFFF;
+        long durationMillis = frames * frame.samplesPerFrame() * 1000 / frame.sampleRate();
+        long audioStart = first + frame.length();
+        int tableStart = position + 26;
+        if (entries == 0 || framesPerEntry == 0 || entrySize < 1 || entrySize > 4
+                || tableStart + (long) entries * entrySize > buffer.limit()) {
+            return new Scan(durationMillis, linearTable(audioStart, buffer.limit() - audioStart));
+        }
+
+        // offset at the start of each entry, then spread over the seek points by frame number
+        long[] entryOffsets = new long[entries + 1];
+        entryOffsets[0] = audioStart;
+        for (int i = 0; i < entries; i++) {
+            long entry = 0;
+            for (int b = 0; b < entrySize; b++) {
+                entry = entry << 8 | buffer.get(tableStart + i * entrySize + b) & 0xFF;
+            }
+            entryOffsets[i + 1] = entryOffsets[i] + entry * Math.max(1, scale);
+        }
+        long[] seekTable = new long[SEEK_POINTS];
+        for (int point = 0; point < SEEK_POINTS; point++) {
+            double entry = (double) point * frames / SEEK_POINTS / framesPerEntry;
+            int index = Math.min((int) entry, entries - 1);
+            double fraction = Math.min(1, entry - index);
+            seekTable[point] = entryOffsets[index] + Math.round(fraction * (entryOffsets[index + 1] - entryOffsets[index]));
+        }
+        return new Scan(durationMillis, seekTable);
+    }
+
+    //Count the samples of every frame and keep the offset of each one, then pick the offsets at each percent.
+    private static Scan walkFrames(ByteBuffer buffer, int first) {
+        long[] offsets = new long[1024];
+        int frames = 0;
+        long samples = 0;
+        int sampleRate = 0;
+        int position = first;
+        while (position >= 0) {
+            Mp3Frame frame = Mp3Frame.at(buffer, position);
+            if (frame == null) {
+                position = Mp3Frame.find(buffer, position + 1);
+                continue;
+            }
+            if (frames == offsets.length) {
+                offsets = Arrays.copyOf(offsets, frames * 2);
+            }
+            offsets[frames++] = position;
+            samples += frame.samplesPerFrame();
+            sampleRate = frame.sampleRate();
+            position += frame.length();
+        }
+        long[] seekTable = new long[SEEK_POINTS];
+        for (int point = 0; point < SEEK_POINTS; point++) {
+            seekTable[point] = offsets[(int) ((long) point * frames / SEEK_POINTS)];
+        }
+        return new Scan(samples * 1000 / sampleRate, seekTable);
+    }
+
+    private static long[] linearTable(long audioStart, long bytes) {
+        long[] seekTable = new long[SEEK_POINTS];
+        for (int point = 0; point < SEEK_POINTS; point++) {
+            seekTable[point] = audioStart + bytes * point / SEEK_POINTS;
+        }
+        return seekTable;
+    }
+
+    private static String ascii(ByteBuffer buffer, int position, int length) {
+        if (position < 0 || position + length > buffer.limit()) {
+            return "";
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
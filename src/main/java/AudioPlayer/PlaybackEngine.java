@@ -0,0 +1,37 @@
+package AudioPlayer;
+
+/* PlaybackEngine plays one track at a time for the AudioPlayer, which keeps the playlist and playback logic.
+ * FxPlaybackEngine plays the files with JavaFX media, SimulatedPlaybackEngine only moves a virtual clock,
+ * so the playing logic also runs without the FX toolkit. Both report what happens to a PlaybackListener. */
+public interface PlaybackEngine {
+    //Events of the engine (opened, ready, progress, end of track) go to this listener.
+    void setListener(PlaybackListener listener);
+
+    //Stop the current track and start this one, false when the track can not be opened.
+    boolean play(Track track);
+
+    //Open the track paused at this position, resume() then starts the audio without waiting for the media.
+    void cue(Track track, double millis);
+
+    //Prepare the track that is expected to play next, so switching to it is fast.
+    void preload(Track track);
+
+    void resume();
+
+    void pause();
+
+    void seek(double millis);
+
+    //Duration of the current track, 0 while it is unknown.
+    double getTotalMillis();
+
+    //false when no track is loaded.
+    boolean isLoaded();
+
+    void setVolume(double volume);
+
+    void setMute(boolean mute);
+
+    //Release the current and the prepared tracks.
+    void dispose();
+}
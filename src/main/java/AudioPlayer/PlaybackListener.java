@@ -0,0 +1,53 @@
+package AudioPlayer;
+
+import javafx.scene.image.Image;
+
+/* PlaybackListener receives what the AudioPlayer and its PlaybackEngine do, instead of them calling the UI directly.
+ * Every method does nothing by default, so a listener only overrides the events it shows. */
+public interface PlaybackListener {
+    //The library was loaded, ids go from 0 to idLimit - 1.
+    default void onLibraryLoaded(int idLimit, String report) {
+    }
+
+    default void onTagsRead(String report) {
+    }
+
+    default void onSearch(String report) {
+    }
+
+    //Waveforms and loudness of the library are ready.
+    default void onAnalysis(String report) {
+    }
+
+    default void onMemoryUsage(long usedMegabytes) {
+    }
+
+    //CPU time of the FX thread during the last second in percent, -1 when it can not be measured.
+    default void onFxThreadLoad(double percent) {
+    }
+
+    //A track was selected to play, its tags from the library can be shown right away.
+    default void onTrackStarted(Track track) {
+    }
+
+    //How long the track took to be ready, prepared when it was preloaded or reused.
+    default void onOpened(Track track, double seconds, boolean prepared) {
+    }
+
+    //The track is ready, info holds the duration and tags read by the engine.
+    default void onReady(Track track, MediaInfo info) {
+    }
+
+    default void onProgress(double currentMillis, double totalMillis) {
+    }
+
+    default void onEndOfTrack(Track track) {
+    }
+
+    default void onPlayerPool(String report) {
+    }
+
+    //image is null when the engine has no cover.
+    record MediaInfo(double durationMillis, String title, String artist, Image image) {
+    }
+}
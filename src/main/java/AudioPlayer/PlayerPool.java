@@ -0,0 +1,130 @@
+package AudioPlayer;
+
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaPlayer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* PlayerPool keeps the prepared MediaPlayers of recently played and preloaded tracks, by track id.
+ * Going back to one of them (previous, replaying, the preloaded next track) skips opening the media again.
+ * The pool is limited by a number of players and by their estimated memory (the file size of each track),
+ * above either limit the least recently used player is disposed. A player in use is not in the pool.
+ * Used on the FX thread only. */
+public class PlayerPool {
+    private final int maxPlayers;
+    private final long maxBytes;
+    private final LinkedHashMap<Integer, Entry> players = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private int hits = 0;
+    private int misses = 0;
+    private int evictions = 0;
+
+    public PlayerPool(int maxPlayers, long maxBytes) {
+        this.maxPlayers = maxPlayers;
+        this.maxBytes = maxBytes;
+    }
+
+    //true when a prepared player of this exact file is waiting in the pool.
+    public boolean contains(Track track) {
+        Entry entry = players.get(track.getId());
+        return entry != null && entry.track() == track;
+    }
+
+    //Take the prepared player of the track out of the pool (hit) or open a new one (miss), null when the file is missing.
+    public MediaPlayer acquire(Track track) {
+        Entry entry = take(track.getId());
+        if (entry != null && entry.track() == track) {
+            hits++;
+            return entry.player();
+        }
+        if (entry != null) {
+            // the file changed since this player was opened
+            entry.player().dispose();
+        }
+        misses++;
+        return open(track);
+    }
+
+    //Open a player ahead of time, preloading counts as neither a hit nor a miss.
+    public void prepare(Track track) {
+        if (contains(track)) {
+            return;
+        }
+        MediaPlayer player = open(track);
+        if (player != null) {
+            release(track, player);
+        }
+    }
+
+    //Give back a player that stopped being used, it is rewound and kept for the next time this track plays.
+    public void release(Track track, MediaPlayer player) {
+        player.stop();
+        player.setOnReady(null);
+        player.setOnEndOfMedia(null);
+        player.setAudioSpectrumListener(null);
+        Entry old = take(track.getId());
+        if (old != null) {
+            old.player().dispose();
+        }
+        Entry entry = new Entry(track, player, track.getSize());
+        players.put(track.getId(), entry);
+        bytes += entry.bytes();
+        evict(track.getId());
+    }
+
+    //Dispose every pooled player.
+    public void clear() {
+        for (Entry entry : players.values()) {
+            entry.player().dispose();
+        }
+        players.clear();
+        bytes = 0;
+    }
+
+    //hit, miss and eviction counts, shown in the performance window.
+    public String getReport() {
+        return String.format("%d players, %.1f MB, %d hits, %d misses, %d evictions",
+                players.size(), bytes / (1024.0 * 1024.0), hits, misses, evictions);
+    }
+
+    private Entry take(int trackId) {
+        Entry entry = players.remove(trackId);
+        if (entry != null) {
+            bytes -= entry.bytes();
+        }
+        return entry;
+    }
+
+    //The player just added is kept even when it alone is above the memory limit.
+    private void evict(int keepId) {
+        Iterator<Map.Entry<Integer, Entry>> eldest = players.entrySet().iterator();
+        while ((players.size() > maxPlayers || bytes > maxBytes) && eldest.hasNext()) {
+            Map.Entry<Integer, Entry> next = eldest.next();
+            if (next.getKey() == keepId) {
+                continue;
+            }
+            next.getValue().player().dispose();
+            bytes -= next.getValue().bytes();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    //Open the file in the songs folder the library and the watcher read, so tracks added while running play too.
+    private MediaPlayer open(Track track) {
+        Path trackPath = Paths.get(Playlist.SONGS_DIR, track.getName());
+        if (!Files.isRegularFile(trackPath)) {
+            System.err.println("Track not found: " + trackPath);
+            return null;
+        }
+        return new MediaPlayer(new Media(trackPath.toUri().toString()));
+    }
+
+    private record Entry(Track track, MediaPlayer player, long bytes) {
+    }
+}
@@ -1,152 +1,379 @@
 package AudioPlayer;
 
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+import javafx.application.Platform;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.stream.Stream;
+import java.util.*;
+import java.util.function.Consumer;
 
-//Use the ArrayList feature to store the Playlist.
+/* Use the ArrayList feature to store the library, tracks are referred to by their TrackTable id.
+ * The playing order is not copied: cycle walks the library positions, single stays on the current track
+ * and shuffle walks a lazily drawn ShuffleOrder over the library positions. */
 public class Playlist {
-    private final List<String> filePlaylist = new ArrayList<>();
-    private final ObservableList<String> playingPlaylist = FXCollections.observableArrayList();
+    public static final String SONGS_DIR = "./src/main/resources/songs/";
+    // the songs folder collaborators, all null for an in memory library, which starts no threads and touches no files
+    private final LibraryIndex libraryIndex;
+    private final MetadataExtractor metadataExtractor;
+    private final AudioAnalyzer analyzer;
+    private final TrackTable trackTable = new TrackTable();
+    private final List<Track> tracks = new ArrayList<>();
+    private final SearchIndex searchIndex = new SearchIndex();
+    // library position of each track id, -1 for removed ids
+    private int[] positionById = new int[0];
+    // median loudness of the analysed tracks, louder tracks are turned down to it
+    private double referenceLoudness = Double.NaN;
 
-    private int currentTrackIndex = 0;
-    private int savedCurrentTrackIndex = -1;
+    private int currentTrackId = -1;
+    private int playbackMode = AudioPlayer.CYCLE;
+    private ShuffleOrder shuffleOrder;
+    private int shuffleStep = 0;
+    private DirectoryWatcher watcher;
+    private Runnable onLibraryChanged;
 
+    //Load the playlist from the library index, the resource/songs/ folder is only rescanned when it changed.
     public Playlist() {
-        loadFilePlaylist();
-        playingPlaylist.addAll(filePlaylist);
+        int workers = Runtime.getRuntime().availableProcessors() - 1;
+        libraryIndex = new LibraryIndex(Paths.get(SONGS_DIR), AppData.resolve("library.idx"));
+        metadataExtractor = new MetadataExtractor(Paths.get(SONGS_DIR), workers);
+        analyzer = new AudioAnalyzer(Paths.get(SONGS_DIR), AppData.resolve("analysis"), workers);
+        loadPlaylist(libraryIndex.load());
     }
 
-    //Read the resource folder, load the playlist according to the file stored in the resource/songs/ playlist.
-    private void loadFilePlaylist() {
-        filePlaylist.clear();
-        try (Stream<Path> files = Files.list(Paths.get("./src/main/resources/songs/"))) {
-            files.filter(Files::isRegularFile)
-                    .map(file -> file.getFileName().toString())
-                    .sorted()
-                    .forEach(filePlaylist::add);
-        } catch (IOException e) {
-            System.out.println("Error reading the songs directory: " + e.getMessage());
-        }
+    //A library given in memory (in file name order) instead of the songs folder, used to drive the player headless.
+    //Nothing is watched, read or analysed, the tracks keep the tags and durations they were given.
+    public Playlist(List<Track> library) {
+        libraryIndex = null;
+        metadataExtractor = null;
+        analyzer = null;
+        loadPlaylist(library);
     }
 
-    //return the playlist.
-    public List<String> getFilePlaylist() {
-        return filePlaylist;
+    private void loadPlaylist(List<Track> library) {
+        tracks.clear();
+        tracks.addAll(library);
+        for (Track track : tracks) {
+            trackTable.put(track);
+            searchIndex.put(track);
+        }
+        updatePositions();
+        if (!tracks.isEmpty()) {
+            currentTrackId = tracks.getFirst().getId();
+        }
     }
 
+    private void updatePositions() {
+        positionById = new int[trackTable.idLimit()];
+        Arrays.fill(positionById, -1);
+        for (int i = 0; i < tracks.size(); i++) {
+            positionById[tracks.get(i).getId()] = i;
+        }
+    }
 
-    public int getCurrentTrackIndex() {
-        return currentTrackIndex;
+    //return the tracks in library (file name) order.
+    public List<Track> getTracks() {
+        return tracks;
     }
 
+    public TrackTable getTrackTable() {
+        return trackTable;
+    }
 
-    public void setCurrentTrackIndex(int index) {
-        if (index >= 0 && index < playingPlaylist.size()) {
-            currentTrackIndex = index;
-        }
+    public Track getTrack(int trackId) {
+        return trackTable.get(trackId);
     }
 
+    //Ids of the tracks matching the query, null when the query is blank.
+    public int[] search(String query) {
+        return searchIndex.search(query);
+    }
 
-    public void saveCurrentTrackIndex() {
-        savedCurrentTrackIndex = currentTrackIndex;
+    //how long the library took to load, shown in the performance window.
+    public String getLoadReport() {
+        return libraryIndex != null ? libraryIndex.getLoadReport() : "in memory";
     }
 
-    public void switchToSingleTrackPlaylist() {
-        String currentTrack = getCurrentTrack();
 
-        playingPlaylist.clear();
-        playingPlaylist.add(currentTrack);
+    //Watch the songs folder, changes are applied to the index on the watcher thread and to the playlists on the FX thread.
+    //New and removed files reach the list right away, the tags and the analysis of the new ones follow from a background
+    //thread and the rows are refreshed once they are read.
+    public void startWatching() {
+        if (watcher != null || libraryIndex == null) {
+            return;
+        }
+        watcher = new DirectoryWatcher(Paths.get(SONGS_DIR), (added, removed, overflow) -> {
+            LibraryIndex.Changes changes = libraryIndex.applyChanges(added, removed, overflow);
+            if (!changes.isEmpty()) {
+                Platform.runLater(() -> applyLibraryChanges(changes));
+            }
+            if (!changes.updated().isEmpty()) {
+                readNewTracks(changes.updated());
+            }
+        });
+        watcher.start();
+    }
 
-        currentTrackIndex = 0;
+    //Read the tags and analyse the tracks a batch added, then refresh the search index, the loudness and the rows.
+    private void readNewTracks(List<Track> updated) {
+        Thread thread = new Thread(() -> {
+            metadataExtractor.extract(updated);
+            libraryIndex.save();
+            analyzer.analyze(updated);
+            Platform.runLater(() -> {
+                for (Track track : updated) {
+                    if (trackTable.get(track.getId()) == track) {
+                        searchIndex.put(track);
+                    }
+                }
+                updateReferenceLoudness();
+                if (onLibraryChanged != null) {
+                    onLibraryChanged.run();
+                }
+            });
+        }, "library-tags");
+        thread.setDaemon(true);
+        thread.start();
     }
 
-    public void switchToSingleTrackPlaylist(int trackIndex) {
-        if (trackIndex >= 0 && trackIndex < filePlaylist.size()) {
-            String selectedTrack = filePlaylist.get(trackIndex);
-            playingPlaylist.clear();
-            playingPlaylist.add(selectedTrack);
-            currentTrackIndex = 0;
-        } else {
-            System.err.println("Invalid track index for single-track mode: " + trackIndex);
+    public void stopWatching() {
+        if (watcher != null) {
+            watcher.stop();
+            watcher = null;
         }
     }
 
-    public void restorePlaylistOrder() {
-        playingPlaylist.clear();
-        playingPlaylist.addAll(filePlaylist);
+    //Stop watching and release the tag reading threads, called when the app stops.
+    public void shutdown() {
+        stopWatching();
+        if (metadataExtractor != null) {
+            metadataExtractor.shutdown();
+            analyzer.shutdown();
+        }
+    }
 
-        currentTrackIndex = 1;
+    //Read the tags of the whole library on a background thread, onDone gets the throughput report on the FX thread.
+    public void readMetadata(Consumer<String> onDone) {
+        if (metadataExtractor == null) {
+            onDone.accept("in memory");
+            return;
+        }
+        List<Track> snapshot = new ArrayList<>(tracks);
+        Thread thread = new Thread(() -> {
+            double tracksPerSecond = metadataExtractor.extract(snapshot);
+            libraryIndex.save();
+            String report = String.format("%d tracks, %.0f tracks/s", snapshot.size(), tracksPerSecond);
+            Platform.runLater(() -> {
+                for (Track track : snapshot) {
+                    searchIndex.put(track);
+                }
+                onDone.accept(report);
+            });
+        }, "metadata");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
-        if (savedCurrentTrackIndex >= 0 && savedCurrentTrackIndex < filePlaylist.size()) {
-            String currentTrackName = filePlaylist.get(savedCurrentTrackIndex);
-            currentTrackIndex = getTrackIndexByName(currentTrackName);
+    //Compute the waveform and loudness of the library on the analysis workers (cached per file),
+    //onDone gets the throughput report on the FX thread.
+    public void analyze(Consumer<String> onDone) {
+        if (analyzer == null) {
+            onDone.accept("in memory");
+            return;
         }
+        List<Track> snapshot = new ArrayList<>(tracks);
+        Thread thread = new Thread(() -> {
+            double tracksPerSecond = analyzer.analyze(snapshot);
+            String report = String.format("%d tracks, %.0f tracks/s on %d threads",
+                    snapshot.size(), tracksPerSecond, analyzer.getThreads());
+            Platform.runLater(() -> {
+                updateReferenceLoudness();
+                onDone.accept(report);
+            });
+        }, "analysis-batch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    //NaN until some tracks are analysed.
+    public double getReferenceLoudness() {
+        return referenceLoudness;
+    }
+
+    private void updateReferenceLoudness() {
+        double[] loudness = tracks.stream()
+                .map(Track::getAnalysis)
+                .filter(analysis -> analysis != null && !Float.isNaN(analysis.loudness()))
+                .mapToDouble(AudioAnalyzer.Analysis::loudness)
+                .sorted()
+                .toArray();
+        referenceLoudness = loudness.length > 0 ? loudness[loudness.length / 2] : Double.NaN;
+    }
+
+    //Called once per applied batch, after the library and playingPlaylist are updated, and again once its new tracks are read.
+    public void setOnLibraryChanged(Runnable onLibraryChanged) {
+        this.onLibraryChanged = onLibraryChanged;
     }
 
-    private int getTrackIndexByName(String trackName) {
-        for (int i = 0; i < filePlaylist.size(); i++) {
-            if (filePlaylist.get(i).equals(trackName)) {
-                return i;
+    //Merge one batch into the sorted library, the current track stays current (or its library neighbour if it was removed).
+    private void applyLibraryChanges(LibraryIndex.Changes changes) {
+        int oldPosition = getPosition(currentTrackId);
+
+        List<Track> updated = changes.updated();
+        List<Track> merged = new ArrayList<>(tracks.size() + updated.size());
+        int next = 0;
+        for (Track track : tracks) {
+            if (changes.removed().contains(track.getName())) {
+                continue;
             }
+            while (next < updated.size() && updated.get(next).getName().compareTo(track.getName()) < 0) {
+                merged.add(updated.get(next++));
+            }
+            merged.add(track);
+        }
+        while (next < updated.size()) {
+            merged.add(updated.get(next++));
         }
-        return -1;
-    }
 
-    public void nextTrack() {
-        if (playingPlaylist.size() > 1) {
-            currentTrackIndex = (currentTrackIndex + 1) % playingPlaylist.size();
+        // a replaced file keeps its id, only names without a new entry leave the table
+        Set<String> deleted = new HashSet<>(changes.removed());
+        int added = 0;
+        for (Track track : updated) {
+            if (!deleted.remove(track.getName())) {
+                added++;
+            }
+            trackTable.put(track);
+            searchIndex.put(track);
+        }
+        for (String name : deleted) {
+            searchIndex.remove(trackTable.remove(name));
+        }
+        tracks.clear();
+        tracks.addAll(merged);
+        updatePositions();
+        updateReferenceLoudness();
+
+        if (getPosition(currentTrackId) == -1) {
+            currentTrackId = tracks.isEmpty() ? -1 : tracks.get(Math.min(Math.max(oldPosition, 0), tracks.size() - 1)).getId();
+        }
+        // positions moved, the shuffle order starts again from the current track
+        if (playbackMode == AudioPlayer.SHUFFLE) {
+            startShuffle();
+        }
+
+        System.out.println("Library updated: " + added + " added, " + deleted.size() + " removed.");
+        if (onLibraryChanged != null) {
+            onLibraryChanged.run();
         }
     }
 
-    public void previousTrack() {
-        if (currentTrackIndex > 0) {
-            currentTrackIndex--;
+    //Switch the playing order, the current track stays current. No list is copied, so this is O(1).
+    public void setPlaybackMode(int mode) {
+        playbackMode = mode;
+        if (mode == AudioPlayer.SHUFFLE) {
+            startShuffle();
         } else {
-            currentTrackIndex = playingPlaylist.size() - 1;
+            shuffleOrder = null;
         }
     }
 
-    public String getCurrentTrack() {
-        return playingPlaylist.get(currentTrackIndex);
+    //Make a track of the library the current one, in shuffle mode a new order starts from it.
+    public void selectTrack(int trackId) {
+        if (getPosition(trackId) == -1) {
+            System.err.println("Invalid track id: " + trackId);
+            return;
+        }
+        currentTrackId = trackId;
+        if (playbackMode == AudioPlayer.SHUFFLE) {
+            startShuffle();
+        }
     }
 
-    //
-    public void updateCurrentTrackIndexByName(String trackName) {
-        int index = getTrackIndexByName(trackName);
-        if (index != -1) {
-            currentTrackIndex = index;
-        } else {
-            System.err.println("Track not found in the playlist: " + trackName);
+    private void startShuffle() {
+        int position = getPosition(currentTrackId);
+        shuffleOrder = new ShuffleOrder(tracks.size(), Math.max(position, 0), new Random().nextLong());
+        shuffleStep = 0;
+    }
+
+    //Seed, first track and step of the shuffle order, null outside shuffle mode. Enough to draw the same order again.
+    public ShuffleState getShuffleState() {
+        if (shuffleOrder == null || tracks.isEmpty()) {
+            return null;
         }
+        return new ShuffleState(shuffleOrder.getSeed(), tracks.get(shuffleOrder.positionAt(0)).getId(), shuffleStep);
     }
 
-    //Use the select Track and Shuffle, enable the shuffle playlist works as inspected.
-    public void selectTrackAndShuffle(int trackIndex) {
-        if (trackIndex >= 0 && trackIndex < filePlaylist.size()) {
-            String selectedTrack = filePlaylist.get(trackIndex);
+    //Make the track current in this mode, a saved shuffle order is drawn again when its first track is still in the library.
+    public void restore(int trackId, int mode, ShuffleState shuffle) {
+        if (getPosition(trackId) != -1) {
+            currentTrackId = trackId;
+        }
+        playbackMode = mode;
+        shuffleOrder = null;
+        if (mode != AudioPlayer.SHUFFLE) {
+            return;
+        }
+        if (shuffle == null || getPosition(shuffle.firstTrackId()) == -1) {
+            startShuffle();
+            return;
+        }
+        shuffleOrder = new ShuffleOrder(tracks.size(), getPosition(shuffle.firstTrackId()), shuffle.seed());
+        shuffleStep = Math.floorMod(shuffle.step(), tracks.size());
+        if (shuffleOrder.positionAt(shuffleStep) != getPosition(currentTrackId)) {
+            // the library changed since the order was saved
+            startShuffle();
+        }
+    }
 
-            List<String> shuffledList = new ArrayList<>(filePlaylist);
-            shuffledList.remove(selectedTrack);
-            shuffledList.addFirst(selectedTrack);
+    public record ShuffleState(long seed, int firstTrackId, int step) {
+    }
 
-            List<String> remainingTracks = shuffledList.subList(1, shuffledList.size());
-            Collections.shuffle(remainingTracks);
+    //library position of a track id, -1 when the id is unknown or removed.
+    public int getPosition(int trackId) {
+        return trackId >= 0 && trackId < positionById.length ? positionById[trackId] : -1;
+    }
 
-            playingPlaylist.clear();
-            playingPlaylist.add(selectedTrack);
-            playingPlaylist.addAll(remainingTracks);
+    public void nextTrack() {
+        moveTrack(1);
+    }
+
+    public void previousTrack() {
+        moveTrack(-1);
+    }
 
-            currentTrackIndex = 0;
+    //Id of the track that next (1) or previous (-1) would move to, without moving, -1 when the library is empty.
+    //Single mode keeps the current track, cycle moves in library order and shuffle moves in the shuffle order.
+    public int peekTrackId(int direction) {
+        if (tracks.isEmpty()) {
+            return -1;
+        }
+        if (playbackMode == AudioPlayer.SINGLE) {
+            return currentTrackId;
+        }
+        int position;
+        if (playbackMode == AudioPlayer.SHUFFLE) {
+            position = shuffleOrder.positionAt(shuffleStep + direction);
+        } else {
+            position = Math.floorMod(getPosition(currentTrackId) + direction, tracks.size());
         }
+        return tracks.get(position).getId();
     }
 
+    private void moveTrack(int direction) {
+        if (tracks.isEmpty() || playbackMode == AudioPlayer.SINGLE) {
+            return;
+        }
+        currentTrackId = peekTrackId(direction);
+        if (playbackMode == AudioPlayer.SHUFFLE) {
+            shuffleStep = Math.floorMod(shuffleStep + direction, tracks.size());
+        }
+    }
+
+    //-1 when the library is empty.
+    public int getCurrentTrackId() {
+        return currentTrackId;
+    }
+
+    //the library entry (name, size, tags) of the current track.
+    public Track getCurrentTrack() {
+        return trackTable.get(currentTrackId);
+    }
 }
@@ -0,0 +1,167 @@
+package AudioPlayer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/* SearchIndex finds the tracks whose name, title, artist or album contain a query (case insensitive).
+ * Every 3 character piece (trigram) of the searchable text points to the ids of the tracks containing it.
+ * A query of 3 or more characters only checks the tracks of its rarest trigram, shorter queries scan the texts.
+ * Tracks are added, updated and removed one by one, so the index follows the library without a rebuild. */
+public class SearchIndex {
+    private final Map<Long, IdList> postings = new HashMap<>();
+    private String[] textById = new String[16];
+    // query stamp per id, used to skip ids that are twice in a posting list
+    private int[] seenById = new int[16];
+    private int queryStamp = 0;
+    private int liveCount = 0;
+    private int entryCount = 0;
+    private int staleCount = 0;
+
+    //Index a track, or index it again after its tags changed.
+    public void put(Track track) {
+        int id = track.getId();
+        ensureCapacity(id + 1);
+        String text = searchableText(track);
+        String old = textById[id];
+        if (text.equals(old)) {
+            return;
+        }
+        if (old == null) {
+            liveCount++;
+        } else {
+            staleCount += trigramCount(old);
+        }
+        textById[id] = text;
+        addPostings(id, text);
+        compactIfNeeded();
+    }
+
+    //The ids stay in the posting lists until the next compaction, a removed id has no text and is skipped.
+    public void remove(int trackId) {
+        if (trackId < 0 || trackId >= textById.length || textById[trackId] == null) {
+            return;
+        }
+        staleCount += trigramCount(textById[trackId]);
+        textById[trackId] = null;
+        liveCount--;
+        compactIfNeeded();
+    }
+
+    //Ids of the matching tracks in ascending order, null for a blank query (no filter).
+    public int[] search(String query) {
+        String needle = query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+        if (needle.isEmpty()) {
+            return null;
+        }
+        queryStamp++;
+        IdList result = new IdList();
+        if (needle.length() < 3) {
+            for (int id = 0; id < textById.length; id++) {
+                if (textById[id] != null && textById[id].contains(needle)) {
+                    result.add(id);
+                }
+            }
+            return result.toArray();
+        }
+
+        IdList rarest = null;
+        for (int i = 0; i + 3 <= needle.length(); i++) {
+            IdList ids = postings.get(trigram(needle, i));
+            if (ids == null) {
+                return new int[0];
+            }
+            if (rarest == null || ids.size < rarest.size) {
+                rarest = ids;
+            }
+        }
+        for (int i = 0; i < rarest.size; i++) {
+            int id = rarest.ids[i];
+            String text = textById[id];
+            if (text != null && seenById[id] != queryStamp && text.contains(needle)) {
+                seenById[id] = queryStamp;
+                result.add(id);
+            }
+        }
+        int[] ids = result.toArray();
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    public int size() {
+        return liveCount;
+    }
+
+    private static String searchableText(Track track) {
+        StringBuilder text = new StringBuilder(track.getName());
+        for (String tag : new String[]{track.getTitle(), track.getArtist(), track.getAlbum()}) {
+            if (tag != null) {
+                text.append('\n').append(tag);
+            }
+        }
+        return text.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static long trigram(String text, int index) {
+        return (long) text.charAt(index) << 32 | (long) text.charAt(index + 1) << 16 | text.charAt(index + 2);
+    }
+
+    private static int trigramCount(String text) {
+        return Math.max(0, text.length() - 2);
+    }
+
+    private void ensureCapacity(int length) {
+        if (length > textById.length) {
+            int capacity = Math.max(length, textById.length * 2);
+            textById = Arrays.copyOf(textById, capacity);
+            seenById = Arrays.copyOf(seenById, capacity);
+        }
+    }
+
+    private void addPostings(int id, String text) {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            if (postings.computeIfAbsent(trigram(text, i), _ -> new IdList()).add(id)) {
+                entryCount++;
+            }
+        }
+    }
+
+    //Drop removed and outdated ids from the posting lists once they are about half of the entries.
+    private void compactIfNeeded() {
+        if (staleCount < 1024 || staleCount * 2 < entryCount) {
+            return;
+        }
+        int entriesBefore = entryCount;
+        postings.clear();
+        entryCount = 0;
+        for (int id = 0; id < textById.length; id++) {
+            if (textById[id] != null) {
+                addPostings(id, textById[id]);
+            }
+        }
+        staleCount = 0;
+        System.out.println("Search index compacted, " + entriesBefore + " entries before, " + entryCount + " after.");
+    }
+
+    //A growable int array, so posting lists do not box their ids.
+    private static class IdList {
+        private int[] ids = new int[4];
+        private int size = 0;
+
+        boolean add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return false;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+            return true;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package AudioPlayer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/* SessionStore keeps the playback session (current track, position, mode, shuffle order, volume and mute)
+ * in a small file, so the next launch starts where the last one stopped.
+ * Writes happen on one writer thread: save() only swaps in the newest session and queues a write when none is queued,
+ * so a burst of changes (dragging the volume bar) ends in one or two writes and the caller never waits for the disk.
+ * The writer thread is no daemon, the last session is still written while the app exits. */
+public class SessionStore {
+    private static final int MAGIC = 0x4D505353; // "MPSS"
+    private static final int VERSION = 1;
+    private final Path sessionFile;
+    private final AtomicReference<Session> pending = new AtomicReference<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "session-writer"));
+
+    public SessionStore(Path sessionFile) {
+        this.sessionFile = sessionFile;
+    }
+
+    //Tracks are stored by file name, ids are only valid within one launch. shuffleFirstTrack is null outside shuffle mode.
+    public record Session(String trackName, double positionMillis, int playbackMode, long shuffleSeed,
+                          String shuffleFirstTrack, int shuffleStep, double volume, boolean mute) {
+    }
+
+    //The session of the last launch, null when there is none or it can not be read.
+    public Session load() {
+        if (!Files.isRegularFile(sessionFile)) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(sessionFile); DataInputStream data = new DataInputStream(in)) {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                return null;
+            }
+            String trackName = data.readUTF();
+            double positionMillis = data.readDouble();
+            int playbackMode = data.readInt();
+            long shuffleSeed = data.readLong();
+            String shuffleFirstTrack = data.readBoolean() ? data.readUTF() : null;
+            int shuffleStep = data.readInt();
+            double volume = data.readDouble();
+            boolean mute = data.readBoolean();
+            return new Session(trackName, positionMillis, playbackMode, shuffleSeed, shuffleFirstTrack, shuffleStep, volume, mute);
+        } catch (IOException e) {
+            System.err.println("Error reading the session: " + e.getMessage());
+            return null;
+        }
+    }
+
+    //Write the session in the background, a session still waiting to be written is replaced.
+    public void save(Session session) {
+        if (pending.getAndSet(session) == null && !writer.isShutdown()) {
+            writer.execute(() -> write(pending.getAndSet(null)));
+        }
+    }
+
+    //Write what is still pending and let the writer thread end.
+    public void close() {
+        writer.shutdown();
+    }
+
+    private void write(Session session) {
+        if (session == null) {
+            return;
+        }
+        Path tempFile = sessionFile.resolveSibling(sessionFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(session.trackName());
+            out.writeDouble(session.positionMillis());
+            out.writeInt(session.playbackMode());
+            out.writeLong(session.shuffleSeed());
+            out.writeBoolean(session.shuffleFirstTrack() != null);
+            if (session.shuffleFirstTrack() != null) {
+                out.writeUTF(session.shuffleFirstTrack());
+            }
+            out.writeInt(session.shuffleStep());
+            out.writeDouble(session.volume());
+            out.writeBoolean(session.mute());
+        } catch (IOException e) {
+            System.err.println("Error writing the session: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tempFile, sessionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error replacing the session: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package AudioPlayer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/* ShuffleOrder is a random permutation of the library positions 0 .. size - 1 that is drawn lazily (Fisher-Yates).
+ * Only the swapped entries are stored, every other entry of the virtual array still holds its own position,
+ * so starting a shuffle and each next / previous step cost O(1) whatever the size of the library.
+ * Steps going forward are drawn at the front of the array, steps going back (before the first track) at the end,
+ * both from the same undrawn middle part, so previous works without drawing the whole permutation. */
+public class ShuffleOrder {
+    private final int size;
+    private final long seed;
+    private final SplittableRandom random;
+    private final Map<Integer, Integer> swapped = new HashMap<>();
+    // entries [0, front) and (back, size - 1] are drawn, [front, back] is still undrawn
+    private int front = 0;
+    private int back;
+
+    //The permutation starts with the track at firstPosition.
+    public ShuffleOrder(int size, int firstPosition, long seed) {
+        this.size = size;
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
+        this.back = size - 1;
+        if (size > 0) {
+            swap(0, firstPosition);
+            front = 1;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    //Library position at a step of the order, steps wrap around like the playlist does.
+    public int positionAt(int step) {
+        step = Math.floorMod(step, size);
+        while (step >= front && step <= back) {
+            if (step - front <= back - step) {
+                drawFront();
+            } else {
+                drawBack();
+            }
+        }
+        return get(step);
+    }
+
+    private void drawFront() {
+        swap(front, front + random.nextInt(back - front + 1));
+        front++;
+    }
+
+    private void drawBack() {
+        swap(back, front + random.nextInt(back - front + 1));
+        back--;
+    }
+
+    private int get(int index) {
+        return swapped.getOrDefault(index, index);
+    }
+
+    private void swap(int i, int j) {
+        if (i == j) {
+            return;
+        }
+        int atI = get(i);
+        int atJ = get(j);
+        swapped.put(i, atJ);
+        swapped.put(j, atI);
+    }
+}
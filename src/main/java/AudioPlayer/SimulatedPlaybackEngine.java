@@ -0,0 +1,148 @@
+package AudioPlayer;
+
+/* SimulatedPlaybackEngine plays nothing, it keeps a virtual clock so the AudioPlayer runs without the FX toolkit.
+ * A track lasts its duration from the tags, or a fake duration (2 to 5 minutes) picked from its name.
+ * Time only moves through advance(), which sends the progress and end of track events right away,
+ * so mode switches, skips and chains of finished tracks can be driven as fast as the playing logic allows. */
+public class SimulatedPlaybackEngine implements PlaybackEngine {
+    private static final double MIN_FAKE_MILLIS = 120_000;
+    private static final int FAKE_RANGE_MILLIS = 180_000;
+    private PlaybackListener listener = new PlaybackListener() {
+    };
+    private Track currentTrack;
+    private Track preloadedTrack;
+    private double positionMillis = 0;
+    private double totalMillis = 0;
+    private boolean playing = false;
+    private double volume = 1;
+    private boolean mute = false;
+    private long tracksPlayed = 0;
+
+    @Override
+    public void setListener(PlaybackListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean play(Track track) {
+        boolean prepared = track == preloadedTrack;
+        preloadedTrack = null;
+        currentTrack = track;
+        positionMillis = 0;
+        totalMillis = durationOf(track);
+        playing = true;
+        tracksPlayed++;
+        listener.onOpened(track, 0, prepared);
+        listener.onReady(track, new PlaybackListener.MediaInfo(totalMillis, track.getTitle(), track.getArtist(), null));
+        return true;
+    }
+
+    @Override
+    public void cue(Track track, double millis) {
+        boolean prepared = track == preloadedTrack;
+        preloadedTrack = null;
+        currentTrack = track;
+        totalMillis = durationOf(track);
+        positionMillis = Math.max(0, Math.min(millis, totalMillis));
+        playing = false;
+        listener.onOpened(track, 0, prepared);
+        listener.onReady(track, new PlaybackListener.MediaInfo(totalMillis, track.getTitle(), track.getArtist(), null));
+        listener.onProgress(positionMillis, totalMillis);
+    }
+
+    @Override
+    public void preload(Track track) {
+        preloadedTrack = track;
+    }
+
+    //Move the virtual clock, tracks that reach their end send onEndOfTrack (and usually get replaced by the next one).
+    public void advance(double millis) {
+        while (millis > 0 && playing && currentTrack != null) {
+            double step = Math.min(millis, totalMillis - positionMillis);
+            positionMillis += step;
+            millis -= step;
+            listener.onProgress(positionMillis, totalMillis);
+            if (positionMillis >= totalMillis) {
+                Track ended = currentTrack;
+                listener.onEndOfTrack(ended);
+                if (currentTrack == ended && positionMillis >= totalMillis) {
+                    // nobody started another track
+                    playing = false;
+                }
+            }
+        }
+    }
+
+    private static double durationOf(Track track) {
+        if (track.getDurationMillis() > 0) {
+            return track.getDurationMillis();
+        }
+        return MIN_FAKE_MILLIS + Math.floorMod(track.getName().hashCode(), FAKE_RANGE_MILLIS);
+    }
+
+    @Override
+    public void resume() {
+        playing = currentTrack != null;
+    }
+
+    @Override
+    public void pause() {
+        playing = false;
+    }
+
+    @Override
+    public void seek(double millis) {
+        positionMillis = Math.max(0, Math.min(millis, totalMillis));
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return totalMillis;
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return currentTrack != null;
+    }
+
+    @Override
+    public void setVolume(double volume) {
+        this.volume = volume;
+    }
+
+    @Override
+    public void setMute(boolean mute) {
+        this.mute = mute;
+    }
+
+    @Override
+    public void dispose() {
+        currentTrack = null;
+        preloadedTrack = null;
+        playing = false;
+    }
+
+    public Track getCurrentTrack() {
+        return currentTrack;
+    }
+
+    public double getPositionMillis() {
+        return positionMillis;
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    public double getVolume() {
+        return volume;
+    }
+
+    public boolean isMute() {
+        return mute;
+    }
+
+    public long getTracksPlayed() {
+        return tracksPlayed;
+    }
+}
@@ -0,0 +1,207 @@
+package AudioPlayer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/* TagReader reads the ID3v2 (2.2, 2.3, 2.4) tag at the start of a mp3 file and falls back to the ID3v1 tag at the end.
+ * Only the tag bytes are read through a FileChannel: each frame header is read, then the frames we do not need
+ * (and the cover, unless asked for) are skipped by moving the position, so the audio data is never touched. */
+public class TagReader {
+    private static final int HEADER_SIZE = 10;
+    private static final int ID3V1_SIZE = 128;
+
+    private TagReader() {
+    }
+
+    public static Tags read(Path file, boolean withCover) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Tags tags = readId3v2(channel, withCover);
+            if (tags.title() == null && tags.artist() == null) {
+                Tags v1 = readId3v1(channel);
+                if (v1 != null) {
+                    return new Tags(v1.title(), v1.artist(), v1.album(), tags.durationMillis(), tags.cover());
+                }
+            }
+            return tags;
+        }
+    }
+
+    private static Tags readId3v2(FileChannel channel, boolean withCover) throws IOException {
+        ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+        if (header == null || header.get(0) != 'I' || header.get(1) != 'D' || header.get(2) != '3') {
+            return new Tags(null, null, null, 0, null);
+        }
+        int version = header.get(3);
+        int flags = header.get(5);
+        long end = HEADER_SIZE + syncSafe(header, 6);
+        long position = HEADER_SIZE;
+
+        // skip the extended header, its size is syncsafe and counts itself in 2.4, plain and without itself in 2.3
+        if ((flags & 0x40) != 0 && version >= 3) {
+            ByteBuffer extended = readFully(channel, position, 4);
+            if (extended == null) {
+                return new Tags(null, null, null, 0, null);
+            }
+            position += version == 4 ? syncSafe(extended, 0) : extended.getInt(0) + 4L;
+        }
+
+        int idLength = version == 2 ? 3 : 4;
+        int frameHeaderSize = version == 2 ? 6 : 10;
+        String title = null, artist = null, album = null;
+        long duration = 0;
+        byte[] cover = null;
+
+        while (position + frameHeaderSize <= end) {
+            ByteBuffer frameHeader = readFully(channel, position, frameHeaderSize);
+            if (frameHeader == null || frameHeader.get(0) == 0) {
+                break; // padding
+            }
+            String id = new String(frameHeader.array(), 0, idLength, StandardCharsets.ISO_8859_1);
+            int size;
+            if (version == 2) {
+                size = (frameHeader.get(3) & 0xFF) << 16 | (frameHeader.get(4) & 0xFF) << 8 | frameHeader.get(5) & 0xFF;
+            } else if (version == 4) {
+                size = syncSafe(frameHeader, 4);
+            } else {
+                size = frameHeader.getInt(4);
+            }
+            position += frameHeaderSize;
+            if (size <= 0 || position + size > end) {
+                break;
+            }
+
+            switch (id) {
+                case "TIT2", "TT2" -> title = readText(channel, position, size);
+                case "TPE1", "TP1" -> artist = readText(channel, position, size);
+                case "TALB", "TAL" -> album = readText(channel, position, size);
+                case "TLEN", "TLE" -> duration = parseLong(readText(channel, position, size));
+                case "APIC", "PIC" -> {
+                    if (withCover && cover == null) {
+                        cover = readPicture(channel, position, size, version == 2);
+                    }
+                }
+                default -> {
+                }
+            }
+            position += size;
+        }
+        return new Tags(title, artist, album, duration, cover);
+    }
+
+    private static Tags readId3v1(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < ID3V1_SIZE) {
+            return null;
+        }
+        ByteBuffer tag = readFully(channel, size - ID3V1_SIZE, ID3V1_SIZE);
+        if (tag == null || tag.get(0) != 'T' || tag.get(1) != 'A' || tag.get(2) != 'G') {
+            return null;
+        }
+        return new Tags(fixedString(tag, 3), fixedString(tag, 33), fixedString(tag, 63), 0, null);
+    }
+
+    //A text frame: one encoding byte, then the text (possibly several values separated by 0, the first one is used).
+    private static String readText(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer frame = readFully(channel, position, size);
+        if (frame == null || size < 2) {
+            return null;
+        }
+        byte[] data = frame.array();
+        Charset charset = charset(data[0]);
+        int length = textLength(data, 1, size, data[0]);
+        String text = new String(data, 1, length, charset).trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    //A picture frame: encoding, mime type (or 3 char format in 2.2), picture type, description, then the image bytes.
+    private static byte[] readPicture(FileChannel channel, long position, int size, boolean v22) throws IOException {
+        ByteBuffer frame = readFully(channel, position, size);
+        if (frame == null) {
+            return null;
+        }
+        byte[] data = frame.array();
+        byte encoding = data[0];
+        int offset = 1;
+        if (v22) {
+            offset += 3;
+        } else {
+            while (offset < size && data[offset] != 0) {
+                offset++;
+            }
+            offset++;
+        }
+        offset++; // picture type
+        offset += textLength(data, offset, size, encoding) + (encoding == 1 || encoding == 2 ? 2 : 1);
+        if (offset >= size) {
+            return null;
+        }
+        byte[] image = new byte[size - offset];
+        System.arraycopy(data, offset, image, 0, image.length);
+        return image;
+    }
+
+    //Length of a text up to its terminator, UTF-16 text ends with two zero bytes.
+    private static int textLength(byte[] data, int offset, int end, byte encoding) {
+        int i = offset;
+        if (encoding == 1 || encoding == 2) {
+            while (i + 1 < end && (data[i] != 0 || data[i + 1] != 0)) {
+                i += 2;
+            }
+        } else {
+            while (i < end && data[i] != 0) {
+                i++;
+            }
+        }
+        return Math.min(i, end) - offset;
+    }
+
+    private static Charset charset(byte encoding) {
+        return switch (encoding) {
+            case 1 -> StandardCharsets.UTF_16;
+            case 2 -> StandardCharsets.UTF_16BE;
+            case 3 -> StandardCharsets.UTF_8;
+            default -> StandardCharsets.ISO_8859_1;
+        };
+    }
+
+    private static String fixedString(ByteBuffer buffer, int offset) {
+        int length = 0;
+        while (length < 30 && buffer.get(offset + length) != 0) {
+            length++;
+        }
+        String text = new String(buffer.array(), offset, length, StandardCharsets.ISO_8859_1).trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static int syncSafe(ByteBuffer buffer, int offset) {
+        return (buffer.get(offset) & 0x7F) << 21 | (buffer.get(offset + 1) & 0x7F) << 14
+                | (buffer.get(offset + 2) & 0x7F) << 7 | buffer.get(offset + 3) & 0x7F;
+    }
+
+    private static long parseLong(String text) {
+        try {
+            return text == null ? 0 : Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return null;
+            }
+        }
+        return buffer.flip();
+    }
+
+    //durationMillis is 0 when the tag has no TLEN frame, cover is null unless asked for and present.
+    public record Tags(String title, String artist, String album, long durationMillis, byte[] cover) {
+    }
+}
@@ -0,0 +1,149 @@
+package AudioPlayer;
+
+import javafx.application.Platform;
+import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.image.Image;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/* ThumbnailCache decodes the embedded cover of each track once, at the size it is shown, and keeps the small version.
+ * Memory tier: LRU map of thumbnails limited by a byte budget (width * height * 4 per image).
+ * Disk tier: one png per track and size, named after a hash of the file name, size and modified time,
+ * so a changed file gets a new thumbnail. Tracks without a cover get an empty ".none" marker. */
+public class ThumbnailCache {
+    private final long memoryBudget;
+    private final Path diskDir;
+    private final LinkedHashMap<String, Image> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "thumbnails");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long memoryBytes = 0;
+
+    public ThumbnailCache(long memoryBudget, Path diskDir) {
+        this.memoryBudget = memoryBudget;
+        this.diskDir = diskDir;
+        try {
+            Files.createDirectories(diskDir);
+        } catch (IOException e) {
+            System.err.println("Error creating the thumbnail directory: " + e.getMessage());
+        }
+    }
+
+    //Thumbnail of the track cover or null if it has none, decodes the cover when it is in neither tier.
+    public Image get(Track track, int size) {
+        String key = key(track, size);
+        synchronized (this) {
+            if (memory.containsKey(key)) {
+                return memory.get(key);
+            }
+        }
+        return load(track, size, key);
+    }
+
+    //Same as get, but a miss is loaded on the thumbnail thread and handed over on the FX thread.
+    public void getAsync(Track track, int size, Consumer<Image> onLoaded) {
+        String key = key(track, size);
+        synchronized (this) {
+            if (memory.containsKey(key)) {
+                onLoaded.accept(memory.get(key));
+                return;
+            }
+        }
+        loader.execute(() -> {
+            // an earlier request for the same thumbnail may have loaded it meanwhile
+            boolean loaded;
+            Image cached;
+            synchronized (this) {
+                loaded = memory.containsKey(key);
+                cached = memory.get(key);
+            }
+            Image image = loaded ? cached : load(track, size, key);
+            Platform.runLater(() -> onLoaded.accept(image));
+        });
+    }
+
+    public void shutdown() {
+        loader.shutdown();
+    }
+
+    private Image load(Track track, int size, String key) {
+        Path png = diskDir.resolve(key + ".png");
+        Path none = diskDir.resolve(key + ".none");
+        Image image = null;
+        if (Files.exists(png)) {
+            image = new Image(png.toUri().toString());
+        } else if (!Files.exists(none)) {
+            image = decode(track, size);
+            Image decoded = image;
+            loader.execute(() -> writeToDisk(decoded, png, none));
+        }
+        remember(key, image);
+        return image;
+    }
+
+    //Only the cover bytes are read (through the TagReader), the image is decoded straight to the thumbnail size.
+    private Image decode(Track track, int size) {
+        try {
+            TagReader.Tags tags = TagReader.read(Paths.get(Playlist.SONGS_DIR, track.getName()), true);
+            if (tags.cover() != null) {
+                Image image = new Image(new ByteArrayInputStream(tags.cover()), size, size, true, true);
+                return image.isError() ? null : image;
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading the cover of " + track.getName() + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    private void writeToDisk(Image image, Path png, Path none) {
+        try {
+            if (image == null) {
+                Files.write(none, new byte[0]);
+            } else {
+                //written next to the png and moved over it, a crash never leaves a truncated png that would be read back
+                Path tempFile = png.resolveSibling(png.getFileName() + ".tmp");
+                ImageIO.write(SwingFXUtils.fromFXImage(image, null), "png", tempFile.toFile());
+                Files.move(tempFile, png, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing thumbnail: " + e.getMessage());
+        }
+    }
+
+    //Add to the memory tier and evict the least recently used thumbnails above the byte budget.
+    private synchronized void remember(String key, Image image) {
+        Image old = memory.put(key, image);
+        memoryBytes += bytes(image) - bytes(old);
+        Iterator<Map.Entry<String, Image>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > memoryBudget && eldest.hasNext()) {
+            Map.Entry<String, Image> entry = eldest.next();
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            memoryBytes -= bytes(entry.getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long bytes(Image image) {
+        return image == null ? 0 : (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+
+    private static String key(Track track, int size) {
+        return track.fileKey() + "-" + size;
+    }
+}
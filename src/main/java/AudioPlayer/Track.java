@@ -0,0 +1,133 @@
+package AudioPlayer;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+//One file of the library, the size and modified time tell if the stored metadata is still valid.
+public class Track {
+    private final String name;
+    private final long size;
+    private final long modified;
+    private int id = -1;
+    private String title;
+    private String artist;
+    private String album;
+    private long durationMillis;
+    // byte offsets at each percent of the duration, see Mp3Scanner
+    private long[] seekTable = new long[0];
+    private volatile boolean tagsRead;
+    private volatile AudioAnalyzer.Analysis analysis;
+    // computed on first use, the name, size and modified time never change
+    private String fileKey;
+
+    public Track(String name, long size, long modified) {
+        this.name = name;
+        this.size = size;
+        this.modified = modified;
+    }
+
+    //Dense id given by the TrackTable, -1 before the track is added to it.
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    //A track is unchanged when the file on disk still has the same size and modified time.
+    public boolean isSameFile(long size, long modified) {
+        return this.size == size && this.modified == modified;
+    }
+
+    //Name for files cached about this track (thumbnails, analysis), a hash of the name, size and modified time,
+    //so a changed file gets new cache files. Hashed once per track, list cells ask for it on every update.
+    public String fileKey() {
+        String key = fileKey;
+        if (key == null) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                String text = name + '\n' + size + '\n' + modified;
+                key = HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            fileKey = key;
+        }
+        return key;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public void setArtist(String artist) {
+        this.artist = artist;
+    }
+
+    public String getAlbum() {
+        return album;
+    }
+
+    public void setAlbum(String album) {
+        this.album = album;
+    }
+
+    //true once the tags were read, even if the file had no tag.
+    public boolean isTagsRead() {
+        return tagsRead;
+    }
+
+    public void setTagsRead(boolean tagsRead) {
+        this.tagsRead = tagsRead;
+    }
+
+    //0 means the duration is not known yet.
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    //Empty when the file was not scanned or has no MPEG audio frames.
+    public long[] getSeekTable() {
+        return seekTable;
+    }
+
+    public void setSeekTable(long[] seekTable) {
+        this.seekTable = seekTable;
+    }
+
+    //Waveform and loudness, null until the AudioAnalyzer got to this track.
+    public AudioAnalyzer.Analysis getAnalysis() {
+        return analysis;
+    }
+
+    public void setAnalysis(AudioAnalyzer.Analysis analysis) {
+        this.analysis = analysis;
+    }
+}
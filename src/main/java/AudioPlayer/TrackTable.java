@@ -0,0 +1,122 @@
+package AudioPlayer;
+
+import java.util.Arrays;
+
+/* TrackTable gives every track of the library a dense int id (0, 1, 2 ...) which stays the same while the app runs.
+ * The name -> id lookup is an open addressing hash table (linear probing) over int slots,
+ * so finding a track by name costs the same whatever the size of the library.
+ * Ids of removed tracks are not reused, their slot in the table becomes a tombstone. */
+public class TrackTable {
+    private static final int EMPTY = 0;
+    private static final int TOMBSTONE = -1;
+    private Track[] tracks = new Track[16];
+    private int size = 0;
+    // slot value is id + 1, 0 = empty, -1 = removed
+    private int[] slots = new int[32];
+    private int used = 0;
+
+    //Add a track or replace the track with the same name, returns its id.
+    public int put(Track track) {
+        int id = idOf(track.getName());
+        if (id != -1) {
+            tracks[id] = track;
+            track.setId(id);
+            return id;
+        }
+        if ((used + 1) * 2 > slots.length) {
+            rehash();
+        }
+        if (size == tracks.length) {
+            tracks = Arrays.copyOf(tracks, size * 2);
+        }
+        id = size++;
+        tracks[id] = track;
+        track.setId(id);
+        insertSlot(track.getName(), id);
+        return id;
+    }
+
+    //Remove the track with this name, returns its old id or -1.
+    public int remove(String name) {
+        int slot = findSlot(name);
+        if (slot == -1) {
+            return -1;
+        }
+        int id = slots[slot] - 1;
+        slots[slot] = TOMBSTONE;
+        tracks[id] = null;
+        return id;
+    }
+
+    //-1 when no track has this name.
+    public int idOf(String name) {
+        int slot = findSlot(name);
+        return slot == -1 ? -1 : slots[slot] - 1;
+    }
+
+    //null for a removed or unknown id.
+    public Track get(int id) {
+        return id >= 0 && id < size ? tracks[id] : null;
+    }
+
+    public String getName(int id) {
+        Track track = get(id);
+        return track != null ? track.getName() : null;
+    }
+
+    //Ids go from 0 to idLimit() - 1, arrays indexed by id can use this length.
+    public int idLimit() {
+        return size;
+    }
+
+    private int findSlot(String name) {
+        int mask = slots.length - 1;
+        for (int slot = hash(name) & mask; slots[slot] != EMPTY; slot = (slot + 1) & mask) {
+            int value = slots[slot];
+            if (value != TOMBSTONE && tracks[value - 1].getName().equals(name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insertSlot(String name, int id) {
+        int mask = slots.length - 1;
+        int slot = hash(name) & mask;
+        while (slots[slot] > 0) {
+            slot = (slot + 1) & mask;
+        }
+        if (slots[slot] == EMPTY) {
+            used++;
+        }
+        slots[slot] = id + 1;
+    }
+
+    //Tombstones are dropped while rehashing, so the table does not fill up with removed names.
+    //The new table is at least four times the live count, so it is at most a quarter full afterwards.
+    private void rehash() {
+        int live = 0;
+        for (int value : slots) {
+            if (value > 0) {
+                live++;
+            }
+        }
+        int capacity = 32;
+        while (capacity < (live + 1) * 4) {
+            capacity *= 2;
+        }
+        int[] old = slots;
+        slots = new int[capacity];
+        used = 0;
+        for (int value : old) {
+            if (value > 0) {
+                insertSlot(tracks[value - 1].getName(), value - 1);
+            }
+        }
+    }
+
+    private static int hash(String name) {
+        int h = name.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
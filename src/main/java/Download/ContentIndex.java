@@ -0,0 +1,273 @@
+package Download;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 内容索引：已下载的文件按 SHA-256 记录，内容相同的下载改为硬链接，不保留第二份数据
+// Content index: downloaded files by SHA-256, a download whose content is already on disk becomes a hard link instead of a second copy
+// 源文件按路径、大小和修改时间记住它的哈希，没变的源文件在复制之前就能找到已下载的内容，直接链接，不再复制
+// Each source remembers its hash by path, size and modified time, so an unchanged source finds the downloaded content
+// before any byte is copied and is linked right away
+// 新的源文件在复制时顺便计算哈希，改名或复制出来的源文件复制完后仍能找到相同的内容
+// A new source is hashed on the copy read, so a renamed or duplicated source still finds the same content once copied
+// 下载目录里的改名按大小和修改时间跟踪
+// Renames in the downloads folder are followed by size and modified time
+// 修改只更新内存并排队一次写入，写入线程把最新内容写入临时文件再原子替换，完成下载的线程不等待磁盘
+// A change only updates the memory and queues one write, the writer thread writes the latest records to a temp file and moves it
+// over the index, so the thread completing a download never waits for the disk
+public class ContentIndex {
+    private static final int MAGIC = 0x4D504349; // "MPCI"
+    private static final int VERSION = 3;
+    private final Path indexFile;
+    private final Map<String, Entry> copies = new LinkedHashMap<>(); // 已下载的文件，按路径 // Downloaded files by path
+    private final Map<String, List<Entry>> copiesByHash = new HashMap<>(); // 已下载的文件，按哈希 // Downloaded files by hash
+    private final Map<String, Entry> sources = new HashMap<>(); // 复制过的源文件，按路径 // Sources copied before by path
+    private final AtomicBoolean writeQueued = new AtomicBoolean();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "content-index-writer"));
+
+    // size 和 modified 用来判断文件记录后是否变化 // size and modified tell whether the file changed since it was recorded
+    public record Entry(String path, long size, long modified, String hash) {
+        // 文件还在并且大小和修改时间没变 // The file is still there with the same size and modified time
+        public boolean isCurrent() {
+            try {
+                Path file = Path.of(path);
+                return Files.isRegularFile(file) && Files.size(file) == size && Files.getLastModifiedTime(file).toMillis() == modified;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    public ContentIndex(Path indexFile) {
+        this.indexFile = indexFile;
+        read();
+    }
+
+    // 新的 SHA-256 摘要 // A new SHA-256 digest
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // 一个内容相同、还在并且大小和修改时间没变的已下载文件，没有时返回 null；不在或已改动的记录顺便移除
+    // A downloaded file with this content that is still there with the same size and modified time, null when there is none;
+    // records of files that are gone or changed are dropped on the way
+    public synchronized Entry findCopy(String hash) {
+        List<Entry> entries = copiesByHash.get(hash);
+        if (entries == null) {
+            return null;
+        }
+        Entry found = null;
+        boolean changed = false;
+        for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext() && found == null; ) {
+            Entry entry = iterator.next();
+            if (entry.isCurrent()) {
+                found = entry;
+            } else {
+                iterator.remove();
+                copies.remove(entry.path());
+                changed = true;
+            }
+        }
+        if (entries.isEmpty()) {
+            copiesByHash.remove(hash);
+        }
+        if (changed) {
+            queueWrite();
+        }
+        return found;
+    }
+
+    // 源文件复制过并且大小和修改时间没变时返回它的哈希，否则 null
+    // The hash of the source when it was copied before and still has the same size and modified time, null otherwise
+    public synchronized String sourceHash(String sourcePath, long size, long modified) {
+        Entry source = sources.get(sourcePath);
+        return source != null && source.size() == size && source.modified() == modified ? source.hash() : null;
+    }
+
+    // 复制或链接完成后记录下载的文件和它的源文件（复制开始时的大小和修改时间）
+    // Record the downloaded file once copied or linked, and its source with the size and modified time it had when the copy started
+    public synchronized void add(String destinationPath, String hash, String sourcePath, long sourceSize, long sourceModified) {
+        sources.put(sourcePath, new Entry(sourcePath, sourceSize, sourceModified, hash));
+        Entry copy = entryOf(destinationPath, hash);
+        if (copy != null) {
+            removeCopy(destinationPath);
+            putCopy(copy);
+        }
+        queueWrite();
+    }
+
+    // 写完排队的修改后结束写入线程 // Write what is still queued and let the writer thread end
+    public void close() {
+        writer.shutdown();
+    }
+
+    // 应用下载目录的一批变化：删除的文件在新增的文件里找到大小和修改时间都相同的，视为改名，否则移除
+    // Apply a batch of changes of the downloads folder: a removed file with a same size and modified time file among the added ones
+    // was renamed and its record moves along, otherwise the record is dropped
+    public synchronized void applyChanges(Path dir, Set<String> added, Set<String> removed) {
+        Map<String, Path> addedByStamp = null;
+        boolean changed = false;
+        for (String name : removed) {
+            Entry old = copies.get(dir.resolve(name).toString());
+            if (old == null) {
+                continue;
+            }
+            if (addedByStamp == null) {
+                addedByStamp = stamps(dir, added);
+            }
+            Path renamed = addedByStamp.remove(old.size() + ":" + old.modified());
+            removeCopy(old.path());
+            if (renamed != null) {
+                putCopy(new Entry(renamed.toString(), old.size(), old.modified(), old.hash()));
+            }
+            changed = true;
+        }
+        if (changed) {
+            queueWrite();
+        }
+    }
+
+    // 新增文件按 "大小:修改时间" // Added files by "size:modified"
+    private static Map<String, Path> stamps(Path dir, Set<String> names) {
+        Map<String, Path> stamps = new HashMap<>();
+        for (String name : names) {
+            Path file = dir.resolve(name);
+            try {
+                if (Files.isRegularFile(file)) {
+                    stamps.put(Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis(), file);
+                }
+            } catch (IOException e) {
+                // 已经又被删除 // Already deleted again
+            }
+        }
+        return stamps;
+    }
+
+    private void putCopy(Entry copy) {
+        copies.put(copy.path(), copy);
+        copiesByHash.computeIfAbsent(copy.hash(), _ -> new ArrayList<>()).add(copy);
+    }
+
+    private boolean removeCopy(String path) {
+        Entry old = copies.remove(path);
+        if (old == null) {
+            return false;
+        }
+        List<Entry> entries = copiesByHash.get(old.hash());
+        entries.remove(old);
+        if (entries.isEmpty()) {
+            copiesByHash.remove(old.hash());
+        }
+        return true;
+    }
+
+    private static Entry entryOf(String path, String hash) {
+        try {
+            Path file = Path.of(path);
+            return new Entry(path, Files.size(file), Files.getLastModifiedTime(file).toMillis(), hash);
+        } catch (IOException e) {
+            System.err.println("Error reading " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // 已有写入在排队时不再排队，它会写入最新的内容 // A write already queued is enough, it writes the latest records
+    private void queueWrite() {
+        if (!writeQueued.getAndSet(true) && !writer.isShutdown()) {
+            writer.execute(() -> {
+                writeQueued.set(false);
+                write();
+            });
+        }
+    }
+
+    private void read() {
+        if (!Files.isRegularFile(indexFile)) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(indexFile); DataInputStream data = new DataInputStream(in)) {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                return;
+            }
+            int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                putCopy(readEntry(data));
+            }
+            int sourceCount = data.readInt();
+            for (int i = 0; i < sourceCount; i++) {
+                Entry source = readEntry(data);
+                sources.put(source.path(), source);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading the content index: " + e.getMessage());
+        }
+    }
+
+    private static Entry readEntry(DataInputStream data) throws IOException {
+        return new Entry(data.readUTF(), data.readLong(), data.readLong(), data.readUTF());
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        out.writeUTF(entry.path());
+        out.writeLong(entry.size());
+        out.writeLong(entry.modified());
+        out.writeUTF(entry.hash());
+    }
+
+    private void write() {
+        List<Entry> copySnapshot;
+        List<Entry> sourceSnapshot;
+        synchronized (this) {
+            copySnapshot = new ArrayList<>(copies.values());
+            sourceSnapshot = new ArrayList<>(sources.values());
+        }
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(copySnapshot.size());
+            for (Entry entry : copySnapshot) {
+                writeEntry(out, entry);
+            }
+            out.writeInt(sourceSnapshot.size());
+            for (Entry entry : sourceSnapshot) {
+                writeEntry(out, entry);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing the content index: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error replacing the content index: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package Download;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 下载日志：记录每个未完成下载的源文件和已确认写入磁盘的偏移量，重启后可以从这里继续
+// Download journal: the source and the offset known to be on disk of every unfinished download, so a restart can continue from there
+// 修改只更新内存并排队一次写入，写入线程把最新内容写入临时文件再原子替换，调用线程（包括 FX 线程）不等待磁盘
+// A change only updates the memory and queues one write, the writer thread writes the latest records to a temp file and moves it
+// over the journal, so the calling thread (the FX thread included) never waits for the disk
+// 写入线程不是守护线程，退出时最后一次修改仍会写完 // The writer is no daemon thread, the last change is still written while the app exits
+public class DownloadJournal {
+    private static final int MAGIC = 0x4D50444A; // "MPDJ"
+    private static final int VERSION = 2;
+    private final Path journalFile;
+    private final Map<String, Entry> entries = new LinkedHashMap<>(); // 按目标路径 // By destination path
+    private final AtomicBoolean writeQueued = new AtomicBoolean();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "journal-writer"));
+
+    // sourceSize 和 sourceModified 用来判断源文件是否变化 // sourceSize and sourceModified tell whether the source changed
+    // offset 是已复制的字节数，分段复制时 segments 是每段到达的位置，否则为空
+    // offset is the number of bytes copied, segments the position reached by each segment of a segmented copy, empty otherwise
+    public record Entry(String taskId, String sourcePath, String destinationPath, long sourceSize, long sourceModified,
+                        long offset, long[] segments) {
+    }
+
+    public DownloadJournal(Path journalFile) {
+        this.journalFile = journalFile;
+        read();
+    }
+
+    // 上次运行留下的未完成下载 // Downloads the last run left unfinished
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    // 记录一个新的下载，偏移量为 0 // Record a new download at offset 0
+    public synchronized void add(Entry entry) {
+        entries.put(entry.destinationPath(), entry);
+        queueWrite();
+    }
+
+    // 数据已经 force 到磁盘后调用 // Called once the data up to the offset was forced to disk
+    public synchronized void checkpoint(String destinationPath, long offset, long[] segments) {
+        Entry entry = entries.get(destinationPath);
+        if (entry != null && (entry.offset() != offset || !Arrays.equals(entry.segments(), segments))) {
+            entries.put(destinationPath, new Entry(entry.taskId(), entry.sourcePath(), destinationPath,
+                    entry.sourceSize(), entry.sourceModified(), offset, segments));
+            queueWrite();
+        }
+    }
+
+    // 下载完成或取消后移除 // Remove a download once it completed or was cancelled
+    public synchronized void remove(String destinationPath) {
+        if (entries.remove(destinationPath) != null) {
+            queueWrite();
+        }
+    }
+
+    // 写完排队的修改后结束写入线程 // Write what is still queued and let the writer thread end
+    public void close() {
+        writer.shutdown();
+    }
+
+    // 已有写入在排队时不再排队，它会写入最新的内容 // A write already queued is enough, it writes the latest records
+    private void queueWrite() {
+        if (!writeQueued.getAndSet(true) && !writer.isShutdown()) {
+            writer.execute(() -> {
+                writeQueued.set(false);
+                write();
+            });
+        }
+    }
+
+    private void read() {
+        if (!Files.isRegularFile(journalFile)) {
+            return;
+        }
+        try (InputStream in = Files.newInputStream(journalFile); DataInputStream data = new DataInputStream(in)) {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                return;
+            }
+            int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                String taskId = data.readUTF();
+                String sourcePath = data.readUTF();
+                String destinationPath = data.readUTF();
+                long sourceSize = data.readLong();
+                long sourceModified = data.readLong();
+                long offset = data.readLong();
+                long[] segments = new long[data.readInt()];
+                for (int s = 0; s < segments.length; s++) {
+                    segments[s] = data.readLong();
+                }
+                Entry entry = new Entry(taskId, sourcePath, destinationPath, sourceSize, sourceModified, offset, segments);
+                entries.put(entry.destinationPath(), entry);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading the download journal: " + e.getMessage());
+        }
+    }
+
+    private void write() {
+        List<Entry> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(entries.values());
+        }
+        Path tempFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Entry entry : snapshot) {
+                out.writeUTF(entry.taskId());
+                out.writeUTF(entry.sourcePath());
+                out.writeUTF(entry.destinationPath());
+                out.writeLong(entry.sourceSize());
+                out.writeLong(entry.sourceModified());
+                out.writeLong(entry.offset());
+                out.writeInt(entry.segments().length);
+                for (long position : entry.segments()) {
+                    out.writeLong(position);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing the download journal: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error replacing the download journal: " + e.getMessage());
+        }
+    }
+}
@@ -1,146 +1,254 @@
 package Download;
 
-import AudioPlayer.AudioPlayer;
+import AudioPlayer.AppData;
+import AudioPlayer.Playlist;
+import AudioPlayer.TrackTable;
 import UI.App;
 import javafx.application.Platform;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class DownloadManager {
-    private final List<String> playlist; // 播放列表 // Playlist
-    private final List<DownloadTask> taskList = new ArrayList<>(); // 下载任务列表 // Download task list
-    private final List<String> downloadedFiles = Collections.synchronizedList(new ArrayList<>());
-    private final List<String> startedFiles = new ArrayList<>(); // 已开始下载的集合 // List of started downloads
-
-    public DownloadManager() {
-        AudioPlayer player = new AudioPlayer();
-        playlist = player.getPlaylist(); // 从播放器获取播放列表 // Get the playlist from the audio player
+    // 同时下载的任务数 // Downloads running at once
+    private static final int CONCURRENCY = Integer.getInteger("download.concurrency", 3);
+    // 全部下载的总速度上限和每个下载的上限（字节/秒），0 表示不限速，界面上可以修改
+    // Speed limit of all downloads together and of each download (bytes/second), 0 for none, both can be changed in the UI
+    private final TokenBucket globalLimiter = new TokenBucket(Long.getLong("download.rate", 0));
+    private long taskLimit = Long.getLong("download.taskRate", 1024 * 100);
+    private final TrackTable trackTable; // 曲目表，按id查找歌曲 // Track table, songs are looked up by id
+    // 调度器限制并发，状态变化显示在下载行 // The scheduler bounds the concurrency, state changes are shown in the download rows
+    private final DownloadScheduler scheduler = new DownloadScheduler(CONCURRENCY,
+            (trackId, state) -> Platform.runLater(() -> App.updateDownloadState(trackId, state)));
+    private final Map<Integer, DownloadTask> tasks = new LinkedHashMap<>(); // 下载任务，按曲目id // Download tasks by track id
+    private final Set<Integer> startedTracks = new HashSet<>(); // 已开始下载的曲目id // Ids of started downloads
+    // 未完成下载的断点日志，重启后用来继续 // Checkpoints of the unfinished downloads, used to resume them after a restart
+    private final DownloadJournal journal = new DownloadJournal(AppData.resolve("downloads.journal"));
+    // 下载内容的 SHA-256，相同内容不再复制 // SHA-256 of the downloaded content, identical content is not copied again
+    private final ContentIndex contentIndex = new ContentIndex(AppData.resolve("downloads.index"));
+    // 已完成的下载，按文件名，重启后仍然有效，由下载目录的监视器更新
+    // Completed downloads by file name, kept across restarts and updated by a watcher on the downloads folder
+    private final DownloadRegistry registry = new DownloadRegistry(Paths.get(System.getProperty("user.home"), "Downloads"),
+            AppData.resolve("downloads.registry"));
+
+    // 使用共享播放器的曲目表，不再重新扫描曲库，下载id和界面一致
+    // Use the track table of the shared player, the library is not scanned again and download ids match the UI rows
+    public DownloadManager(TrackTable trackTable) {
+        this.trackTable = trackTable;
+        // 下载目录里的改名和删除也更新内容索引 // Renames and deletions in the downloads folder update the content index too
+        registry.setOnChanges((added, removed) -> contentIndex.applyChanges(registry.getDownloadsDir(), added, removed));
+        registry.start();
     }
 
-    // 启动下载任务 // Start the download task
-    public void startDownload(int index) {
-        String taskId = playlist.get(index);
-        String sourcePath = "./src/main/resources/songs/" + taskId;
-        String userHome = System.getProperty("user.home");
-        String destinationPath = userHome + "/Downloads/" + taskId;
-
-        System.out.println("Current downloadedFiles: " + downloadedFiles);
-        checkDownloadedFiles();  // 清理已删除文件的路径
+    // 停止监视下载目录，写完下载日志和内容索引 // Stop watching the downloads folder and finish writing the journal and the content index
+    public void shutdown() {
+        registry.stop();
+        journal.close();
+        contentIndex.close();
+    }
 
+    // 启动下载任务 // Start the download task
+    public void startDownload(int trackId) {
+        String taskId = trackTable.getName(trackId);
+        if (taskId == null) {
+            System.err.println("Track with ID " + trackId + " not found.");
+            return;
+        }
+        String sourcePath = Playlist.SONGS_DIR + taskId;
+        String destinationPath = registry.getDownloadsDir().resolve(taskId).toString();
 
         // 检查是否开始下载/禁止重复下载//check if start download/avoid repeat download operation
-        if (startedFiles.contains(taskId)) {
+        if (startedTracks.contains(trackId)) {
             System.out.println("This song is already downloading: " + taskId);
             App.updateWarning("This song is already downloading");
             return;
         }
 
-        startedFiles.add(playlist.get(index));
-
-        System.out.println("2:After checkDownloadedFiles(), downloadedFiles: " + downloadedFiles);
-        if (downloadedFiles.contains(destinationPath)) {
+        // 查登记表，与下载过的数量无关 // Look it up in the registry, the cost does not depend on the number of past downloads
+        if (registry.contains(taskId)) {
             System.out.println("This song has already been downloaded: " + taskId);
             App.updateWarning("This song has already been downloaded");
             return;
         }
 
-        // 创建任务对象//creat task
+        startedTracks.add(trackId);
+        App.removeDownloadTask(trackId); // 上次失败的行 // The row of an earlier failed attempt
+
+        File source = new File(sourcePath);
+        journal.add(new DownloadJournal.Entry(taskId, sourcePath, destinationPath, source.length(), source.lastModified(), 0, new long[0]));
+        DownloadTask task = createTask(trackId, taskId, sourcePath, destinationPath, 0, new long[0]);
+        tasks.put(trackId, task);
+        App.addDownloadRow(trackId, tasks.size() - 1, false);
+
+        // 交给调度器，有空闲名额时开始 // Hand it to the scheduler, it starts when a slot is free
+        scheduler.submit(trackId, task, DownloadScheduler.NORMAL);
+        App.updateWarning(scheduler.getState(trackId) == DownloadScheduler.State.QUEUED ? "Download queued" : "Start download");
+    }
+
+    // 上次运行中断的下载以暂停状态显示，用户点继续后从最后确认的偏移量开始
+    // Downloads interrupted in the last run are shown paused, resuming one continues from its last verified offset
+    public void restoreInterrupted() {
+        for (DownloadJournal.Entry entry : journal.getEntries()) {
+            int trackId = trackTable.idOf(entry.taskId());
+            File source = new File(entry.sourcePath());
+            if (trackId == -1 || startedTracks.contains(trackId) || !source.isFile()) {
+                journal.remove(entry.destinationPath());
+                continue;
+            }
+            // 源文件变了或 .part 文件比断点短时从头开始 // Start over when the source changed or the .part file is shorter than the checkpoint
+            long offset = entry.offset();
+            long[] segments = entry.segments();
+            try {
+                if (source.length() != entry.sourceSize() || source.lastModified() != entry.sourceModified()
+                        || !Files.exists(DownloadTask.partPath(entry.destinationPath()))
+                        || Files.size(DownloadTask.partPath(entry.destinationPath())) < offset) {
+                    offset = 0;
+                }
+            } catch (IOException e) {
+                offset = 0;
+            }
+            if (offset == 0) {
+                segments = new long[0];
+                journal.add(new DownloadJournal.Entry(entry.taskId(), entry.sourcePath(), entry.destinationPath(),
+                        source.length(), source.lastModified(), 0, segments));
+            }
+
+            startedTracks.add(trackId);
+            DownloadTask task = createTask(trackId, entry.taskId(), entry.sourcePath(), entry.destinationPath(), offset, segments);
+            tasks.put(trackId, task);
+            App.addDownloadRow(trackId, tasks.size() - 1, true);
+            App.updateDownloadProgress(source.length() > 0 ? (double) offset / source.length() : 0, trackId);
+            scheduler.hold(trackId, task, DownloadScheduler.NORMAL);
+            System.out.println("Interrupted download can be resumed: " + entry.taskId() + " at " + offset + " bytes");
+        }
+    }
+
+    // 创建任务对象//creat task
+    private DownloadTask createTask(int trackId, String taskId, String sourcePath, String destinationPath, long startOffset,
+                                    long[] segmentOffsets) {
         DownloadTask task = new DownloadTask(sourcePath, destinationPath, null, taskId);
 
         // 创建回调并延迟绑定//callback
         ProgressCallback callback = new ProgressCallback() {
+            // 尚未显示的最新进度，每行最多一个待执行的 runLater // Latest progress not shown yet, at most one pending runLater per row
+            private final AtomicReference<Double> pendingProgress = new AtomicReference<>();
+
+            // 由下载线程调用，只在 FX 线程上更新进度条，期间的多次更新合并为最新的一次
+            // Called by the download threads, the bar is only touched on the FX thread and updates in between collapse into the latest
             @Override
             public void updateProgress(double progress) {
-                App.updateDownloadProgress(progress, taskList.indexOf(task));
+                if (pendingProgress.getAndSet(progress) == null) {
+                    Platform.runLater(() -> App.updateDownloadProgress(pendingProgress.getAndSet(null), trackId));
+                }
             }
 
             @Override
             public void onError(Exception e) {
-                System.err.println("Error downloading " + playlist.get(index) + ": " + e.getMessage());
+                System.err.println("Error downloading " + taskId + ": " + e.getMessage());
+                // 行显示失败，曲目可以重新下载 // The row shows the failure and the track can be downloaded again
+                Platform.runLater(() -> {
+                    if (tasks.get(trackId) == task) {
+                        tasks.remove(trackId);
+                        startedTracks.remove(trackId);
+                        App.markDownloadFailed(trackId);
+                        App.updateWarning("Download failed: " + taskId);
+                    }
+                });
             }
 
             @Override
             public void onCancelled() {
-                System.out.println("Download cancelled: " + playlist.get(index));
+                System.out.println("Download cancelled: " + taskId);
             }
 
             @Override
             public void onComplete() {
+                registry.add(taskId); // 标记文件已下载 // Mark the file downloaded
                 Platform.runLater(() -> {
-                    App.removeDownloadTask(task.getTaskId());
-                    taskList.remove(task);
-                    downloadedFiles.add(destinationPath); // 标记文件已下载
-                    startedFiles.remove(playlist.get(index));
-                    if (taskList.isEmpty()) App.showNoDownloadMessage();
+                    App.removeDownloadTask(trackId);
+                    tasks.remove(trackId);
+                    startedTracks.remove(trackId);
+                    if (tasks.isEmpty()) App.showNoDownloadMessage();
                 });
             }
         };
 
-        taskList.add(task);
-        App.addDownloadRow(index, taskList.indexOf(task));
-
         // 设置回调//set callback
         task.setProgressCallback(callback);
+        task.setGlobalLimiter(globalLimiter);
+        task.setSpeedLimit(taskLimit);
+        task.setJournal(journal, startOffset, segmentOffsets);
+        task.setContentIndex(contentIndex);
+        return task;
+    }
 
-        // 启动任务//start
-        Thread thread = new Thread(task);
-        thread.setDaemon(true);
-        thread.start();
-        App.updateWarning("Start download");
+    // 移除下载任务 // Remove the download task
+    public void removeTask(int trackId) {
+        DownloadTask task = tasks.remove(trackId);
+        if (task != null) {
+            scheduler.cancel(trackId);
+            task.discard();
+            startedTracks.remove(trackId);
+            System.out.println("Task with ID " + trackId + " has been removed.");
+            return;
+        }
+        System.err.println("Task with ID " + trackId + " not found.");
     }
 
-    public void checkDownloadedFiles() {
-        System.out.println("2: Before cleaning, downloadedFiles: " + downloadedFiles);
-        // 遍历下载目录中的所有文件，移除已删除的文件路径 //travel all file in dir, remove the file in "downloadedFiles" which already deleted in dir
-        List<String> filesToRemove = new ArrayList<>();
-        for (String filePath : downloadedFiles) {
-            File file = new File(filePath);
-            if (!file.exists()) {
-                filesToRemove.add(filePath); // 如果文件不存在，添加到移除列表//if file not exist, add to arraylist "filesToRemove"
-                System.out.println("remove list" + filesToRemove);
-            }
+    // 暂停任务 // Pause the task
+    public void pauseTask(int trackId) {
+        DownloadTask task = tasks.get(trackId);
+        if (task != null) {
+            scheduler.pause(trackId);
+            System.out.println("Task with ID " + trackId + " has been paused.");
+            return;
         }
-        downloadedFiles.removeAll(filesToRemove); // 从下载记录中移除这些文件//remove file from downloadFiles
+        System.err.println("Task with ID " + trackId + " not found.");
     }
 
-    // 移除下载任务 // Remove the download task (not yet used)
-    public void removeTask(String taskId) {
-        for (DownloadTask task : taskList) {
-            if (task.getTaskId().equals(taskId)) {
-                task.cancel();
-                taskList.remove(task);
-                System.out.println("Task with ID " + taskId + " has been removed.");
-                return;
-            }
+
+    // 恢复任务 // Resume the task
+    public void resumeTask(int trackId) {
+        DownloadTask task = tasks.get(trackId);
+        if (task != null) {
+            scheduler.resume(trackId);
+            System.out.println("Task with ID " + trackId + " has been resumed.");
+            return;
         }
-        System.err.println("Task with ID " + taskId + " not found.");
+        System.err.println("Task with ID " + trackId + " not found.");
     }
 
-    // 暂停任务 // Pause the task
-    public void pauseTask(String taskId) {
-        for (DownloadTask task : taskList) {
-            if (task.getTaskId().equals(taskId)) {
-                task.pause();
-                System.out.println("Task with ID " + taskId + " has been paused.");
-                return;
-            }
+    // 修改总速度上限，立即对所有任务生效 // Change the total speed limit, it applies to every task at once
+    public void setGlobalLimit(long bytesPerSecond) {
+        globalLimiter.setRate(bytesPerSecond);
+    }
+
+    public long getGlobalLimit() {
+        return globalLimiter.getRate();
+    }
+
+    // 修改每个下载的上限，包括正在下载的任务 // Change the cap of each download, running tasks included
+    public void setTaskLimit(long bytesPerSecond) {
+        taskLimit = bytesPerSecond;
+        for (DownloadTask task : tasks.values()) {
+            task.setSpeedLimit(bytesPerSecond);
         }
-        System.err.println("Task with ID " + taskId + " not found.");
     }
 
+    public long getTaskLimit() {
+        return taskLimit;
+    }
 
-    // 恢复任务 // Resume the task
-    public void resumeTask(String taskId) {
-        for (DownloadTask task : taskList) {
-            if (task.getTaskId().equals(taskId)) {
-                task.resume();
-                System.out.println("Task with ID " + taskId + " has been resumed.");
-                return;
-            }
+    // 把排队的任务移到队首 // Move a queued task to the front of the queue
+    public void moveToFront(int trackId) {
+        if (scheduler.moveToFront(trackId)) {
+            System.out.println("Task with ID " + trackId + " moved to the front.");
+            return;
         }
-        System.err.println("Task with ID " + taskId + " not found.");
+        App.updateWarning("Only queued downloads can move to the front");
     }
 }
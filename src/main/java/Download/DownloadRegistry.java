@@ -0,0 +1,249 @@
+package Download;
+
+import AudioPlayer.DirectoryWatcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+// 已完成下载的登记表：下载目录里由播放器下载的文件名，保存在哈希集合里，查询与下载数量无关
+// Registry of completed downloads: the names of the files the player downloaded into the downloads folder, kept in a hash set,
+// so a lookup costs the same however many downloads there were
+// 文件是只追加的日志（添加/移除记录），每次修改追加一条，日志比登记表大很多时重写一次
+// The file is an append only log of add and remove records, each change appends one record, it is rewritten once the log is much larger than the registry
+// 下载目录由 DirectoryWatcher 监视，被删除的文件从登记表移除；启动时列一次目录，补上播放器关闭期间的变化
+// A DirectoryWatcher on the downloads folder removes deleted files; at launch the folder is listed once for the changes made while the player was closed
+public class DownloadRegistry {
+    private static final int MAGIC = 0x4D504452; // "MPDR"
+    private static final int VERSION = 1;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 0;
+    // 日志记录数超过登记表两倍加这个数时重写 // Rewrite once the log holds more than twice the registry plus this many records
+    private static final int COMPACT_SLACK = 1024;
+    private final Path downloadsDir;
+    private final Path logFile;
+    private final Set<String> downloaded = new HashSet<>(); // 文件名 // File names
+    private DataOutputStream log; // 追加写入，null 时日志不可用 // Appends go here, null when the log can not be written
+    private int logRecords = 0;
+    private DirectoryWatcher watcher;
+    private BiConsumer<Set<String>, Set<String>> onChanges = (_, _) -> {
+    };
+
+    public DownloadRegistry(Path downloadsDir, Path logFile) {
+        this.downloadsDir = downloadsDir;
+        this.logFile = logFile;
+        boolean complete = read();
+        if (!complete || logRecords > 2 * downloaded.size() + COMPACT_SLACK) {
+            compact();
+        } else {
+            openLog();
+        }
+    }
+
+    public Path getDownloadsDir() {
+        return downloadsDir;
+    }
+
+    // 下载目录的每批变化（新增和删除的文件名），在监视线程调用 // Called on the watcher thread with each batch of added and removed names in the downloads folder
+    public void setOnChanges(BiConsumer<Set<String>, Set<String>> onChanges) {
+        this.onChanges = onChanges;
+    }
+
+    // 开始监视下载目录，并列一次目录去掉已经不在的文件 // Watch the downloads folder and list it once to drop the files that are gone
+    public void start() {
+        try {
+            Files.createDirectories(downloadsDir);
+        } catch (IOException e) {
+            System.err.println("Error creating " + downloadsDir + ": " + e.getMessage());
+            return;
+        }
+        watcher = new DirectoryWatcher(downloadsDir, (added, removed, overflow) -> {
+            if (overflow) {
+                reconcile();
+            } else {
+                removeAll(removed);
+                onChanges.accept(added, removed);
+            }
+        });
+        watcher.start();
+        Thread.ofVirtual().name("download-registry").start(this::reconcile);
+    }
+
+    public void stop() {
+        if (watcher != null) {
+            watcher.stop();
+            watcher = null;
+        }
+    }
+
+    // 是否已下载；命中时检查这一个文件是否还在，监视器还没报告的删除也能发现
+    // Whether the file was downloaded; a hit checks that one file is still there, so a deletion the watcher did not report yet is seen too
+    public boolean contains(String name) {
+        synchronized (this) {
+            if (!downloaded.contains(name)) {
+                return false;
+            }
+        }
+        if (Files.isRegularFile(downloadsDir.resolve(name))) {
+            return true;
+        }
+        removeAll(Set.of(name));
+        return false;
+    }
+
+    // 下载完成后登记 // Register a completed download
+    public synchronized void add(String name) {
+        if (downloaded.add(name)) {
+            append(ADD, name);
+        }
+    }
+
+    public synchronized int size() {
+        return downloaded.size();
+    }
+
+    private synchronized void removeAll(Set<String> names) {
+        for (String name : names) {
+            if (downloaded.remove(name)) {
+                append(REMOVE, name);
+            }
+        }
+    }
+
+    // 列一次下载目录，移除已经不在的文件 // List the downloads folder once and remove the files that are gone
+    // 登记表在列目录之前复制：之后完成的下载不在副本里，不会因为列表里还没有它而被移除
+    // The registry is copied before the listing: a download completing afterwards is not in the copy,
+    // so it is not removed for missing from a listing taken too early
+    private void reconcile() {
+        Set<String> missing;
+        synchronized (this) {
+            missing = new HashSet<>(downloaded);
+        }
+        Set<String> present = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(downloadsDir)) {
+            for (Path file : files) {
+                present.add(file.getFileName().toString());
+            }
+        } catch (IOException e) {
+            System.err.println("Error listing " + downloadsDir + ": " + e.getMessage());
+            return;
+        }
+        missing.removeAll(present);
+        // 列目录期间被删除又重新下载的文件还在 // A file deleted and downloaded again during the listing is still there
+        missing.removeIf(name -> Files.exists(downloadsDir.resolve(name)));
+        removeAll(missing);
+    }
+
+    // 返回日志是否完整，最后一条记录写了一半时为 false // Returns whether the log is complete, false when the last record was cut off
+    private boolean read() {
+        if (!Files.isRegularFile(logFile)) {
+            return true;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(logFile)); DataInputStream data = new DataInputStream(in)) {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                return false;
+            }
+            while (true) {
+                int op = data.read();
+                if (op == -1) {
+                    return true;
+                }
+                String name = data.readUTF();
+                if (op == ADD) {
+                    downloaded.add(name);
+                } else {
+                    downloaded.remove(name);
+                }
+                logRecords++;
+            }
+        } catch (EOFException e) {
+            return false;
+        } catch (IOException e) {
+            System.err.println("Error reading the download registry: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void append(byte op, String name) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.writeByte(op);
+            log.writeUTF(name);
+            log.flush();
+            logRecords++;
+        } catch (IOException e) {
+            System.err.println("Error writing the download registry: " + e.getMessage());
+        }
+        if (logRecords > 2 * downloaded.size() + COMPACT_SLACK) {
+            compact();
+        }
+    }
+
+    // 把登记表写成只有添加记录的新日志，原子替换旧日志 // Write the registry as a new log of add records only and move it over the old log
+    private void compact() {
+        closeLog();
+        Path tempFile = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (String name : downloaded) {
+                out.writeByte(ADD);
+                out.writeUTF(name);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing the download registry: " + e.getMessage());
+            openLog();
+            return;
+        }
+        try {
+            Files.move(tempFile, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error replacing the download registry: " + e.getMessage());
+            openLog();
+            return;
+        }
+        logRecords = downloaded.size();
+        openLog();
+    }
+
+    private void openLog() {
+        try {
+            boolean exists = Files.isRegularFile(logFile);
+            log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(logFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+            if (!exists) {
+                log.writeInt(MAGIC);
+                log.writeInt(VERSION);
+                log.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Error opening the download registry: " + e.getMessage());
+            log = null;
+        }
+    }
+
+    private void closeLog() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("Error closing the download registry: " + e.getMessage());
+            }
+            log = null;
+        }
+    }
+}
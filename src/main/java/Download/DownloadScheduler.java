@@ -0,0 +1,194 @@
+package Download;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
+
+// 下载调度器：最多同时运行 limit 个任务，其余任务按优先级排队，同一优先级先进先出
+// Download scheduler: at most limit tasks run at once, the others wait in a priority queue, first in first out within a priority
+// 每个运行的任务使用一个虚拟线程，排队的任务不占用线程
+// Each running task gets a virtual thread, queued tasks hold no thread
+// 暂停的任务让出名额；恢复时立即继续，所以恢复后可能短暂超过 limit
+// A paused task gives up its slot; it continues right away when resumed, so resuming may briefly go above the limit
+// 公平的含义：开始的顺序按优先级再按排队顺序；运行中的任务每次只从全局令牌桶预约一块，按预约先后轮流得到带宽，所以同时运行的任务平分限速
+// Fair means: tasks start by priority and then in queue order; a running task reserves one chunk at a time from the global
+// token bucket and reservations are served in turn, so the running tasks share the limited bandwidth evenly
+public class DownloadScheduler {
+    public static final int NORMAL = 0;
+    public static final int HIGH = 1;
+
+    public enum State {QUEUED, ACTIVE, PAUSED}
+
+    // 优先级高的在前，同一优先级按排队顺序 // Higher priority first, then queue order
+    private static final Comparator<Entry> ORDER = Comparator.comparingInt((Entry entry) -> -entry.priority)
+            .thenComparingLong(entry -> entry.order);
+    private final int limit;
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>(ORDER);
+    private final Map<Integer, Entry> entries = new HashMap<>(); // 所有未完成的任务，按曲目id // All unfinished tasks by track id
+    private final ThreadFactory threads = Thread.ofVirtual().name("download-", 0).factory();
+    private final BiConsumer<Integer, State> onStateChanged; // 状态变化通知，在调度器锁内调用 // State change listener, called under the scheduler lock
+    private int active = 0;
+    private long nextOrder = 0; // 队尾序号 // Sequence number at the back of the queue
+    private long frontOrder = -1; // 队首序号，移到队首的任务递减使用 // Sequence number at the front, counts down for moved tasks
+
+    public DownloadScheduler(int limit, BiConsumer<Integer, State> onStateChanged) {
+        this.limit = Math.max(1, limit);
+        this.onStateChanged = onStateChanged;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    // 加入队列，有空闲名额时立即开始 // Queue the task, it starts right away when a slot is free
+    public synchronized void submit(int trackId, DownloadTask task, int priority) {
+        Entry entry = new Entry(trackId, task, priority, nextOrder++);
+        entries.put(trackId, entry);
+        queue.add(entry);
+        setState(entry, State.QUEUED);
+        startNext();
+    }
+
+    // 以暂停状态登记任务，resume 后才排队 // Register the task paused, it only joins the queue once resumed
+    public synchronized void hold(int trackId, DownloadTask task, int priority) {
+        Entry entry = new Entry(trackId, task, priority, nextOrder++);
+        entries.put(trackId, entry);
+        setState(entry, State.PAUSED);
+    }
+
+    // 把排队中的任务移到队首 // Move a queued task to the front of the queue
+    public synchronized boolean moveToFront(int trackId) {
+        Entry entry = entries.get(trackId);
+        if (entry == null || entry.thread != null) {
+            return false;
+        }
+        boolean queued = queue.remove(entry);
+        Entry first = queue.peek();
+        entry.priority = first != null ? Math.max(entry.priority, first.priority) : entry.priority;
+        entry.order = frontOrder--;
+        if (queued) {
+            queue.add(entry);
+        }
+        return true;
+    }
+
+    // 暂停：排队的任务离开队列，运行中的任务让出名额 // Pause: a queued task leaves the queue, a running task gives up its slot
+    public synchronized boolean pause(int trackId) {
+        Entry entry = entries.get(trackId);
+        if (entry == null || entry.state == State.PAUSED) {
+            return false;
+        }
+        if (entry.thread == null) {
+            queue.remove(entry);
+        } else {
+            entry.task.pause();
+            active--;
+        }
+        setState(entry, State.PAUSED);
+        startNext();
+        return true;
+    }
+
+    // 恢复：已开始的任务继续，未开始的任务按原来的位置回到队列 // Resume: a started task continues, an unstarted one goes back to its place in the queue
+    public synchronized boolean resume(int trackId) {
+        Entry entry = entries.get(trackId);
+        if (entry == null || entry.state != State.PAUSED) {
+            return false;
+        }
+        if (entry.thread == null) {
+            queue.add(entry);
+            setState(entry, State.QUEUED);
+            startNext();
+        } else {
+            active++;
+            setState(entry, State.ACTIVE);
+            entry.task.resume();
+        }
+        return true;
+    }
+
+    // 取消任务并释放名额 // Cancel the task and free its slot
+    public synchronized boolean cancel(int trackId) {
+        Entry entry = entries.remove(trackId);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.thread == null) {
+            queue.remove(entry);
+        } else {
+            entry.task.cancel();
+            if (entry.state == State.ACTIVE) {
+                active--;
+            }
+        }
+        startNext();
+        return true;
+    }
+
+    // null 表示没有这个任务 // null when there is no such task
+    public synchronized State getState(int trackId) {
+        Entry entry = entries.get(trackId);
+        return entry != null ? entry.state : null;
+    }
+
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    // 在空闲名额内按顺序启动排队的任务 // Start queued tasks in order while there are free slots
+    private void startNext() {
+        while (active < limit && !queue.isEmpty()) {
+            Entry entry = queue.poll();
+            active++;
+            setState(entry, State.ACTIVE);
+            entry.thread = threads.newThread(() -> {
+                try {
+                    entry.task.run();
+                } finally {
+                    finished(entry);
+                }
+            });
+            entry.thread.start();
+        }
+    }
+
+    // 任务结束（完成、出错或取消）后调用 // Called when the task ended (completed, failed or cancelled)
+    private synchronized void finished(Entry entry) {
+        if (entries.get(entry.trackId) != entry) {
+            return; // 已取消，名额已释放 // Cancelled, the slot was already freed
+        }
+        entries.remove(entry.trackId);
+        if (entry.state == State.ACTIVE) {
+            active--;
+        }
+        startNext();
+    }
+
+    private void setState(Entry entry, State state) {
+        entry.state = state;
+        onStateChanged.accept(entry.trackId, state);
+    }
+
+    private static class Entry {
+        private final int trackId;
+        private final DownloadTask task;
+        private int priority;
+        private long order;
+        private State state;
+        private Thread thread; // 开始运行后才有线程 // Only set once the task started
+
+        Entry(int trackId, DownloadTask task, int priority, long order) {
+            this.trackId = trackId;
+            this.task = task;
+            this.priority = priority;
+            this.order = order;
+        }
+    }
+}
@@ -1,17 +1,65 @@
 package Download;
 
-import UI.App;
-
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class DownloadTask implements Runnable {
+    // 每次 transferTo 的最大字节数 // Most bytes moved by one transferTo call
+    private static final long TRANSFER_CHUNK = 8L * 1024 * 1024;
+    // 限速时每秒至少更新进度的次数 // Progress updates per second at least while the speed is limited
+    private static final int PROGRESS_STEPS_PER_SECOND = 10;
+    // 限速时的块大小范围，块越小多个任务共享带宽越平均 // Chunk size range while limited, smaller chunks share the bandwidth more evenly
+    private static final long MIN_LIMITED_CHUNK = 8 * 1024;
+    private static final long MAX_LIMITED_CHUNK = 256 * 1024;
+    private static final TokenBucket UNLIMITED = new TokenBucket(0);
+    // 写入日志的间隔（字节或时间，先到者为准） // Checkpoint interval (bytes or time, whichever comes first)
+    private static final long CHECKPOINT_BYTES = 32L * 1024 * 1024;
+    private static final long CHECKPOINT_NANOS = 2_000_000_000L;
+    // 大于这个大小的文件分段复制，每段约 SEGMENT_TARGET_BYTES，最多 MAX_SEGMENTS 段
+    // Files above this size are copied in segments of about SEGMENT_TARGET_BYTES, MAX_SEGMENTS at most
+    private static final long SEGMENTED_FILE_BYTES = 64L * 1024 * 1024;
+    private static final long SEGMENT_TARGET_BYTES = 32L * 1024 * 1024;
+    private static final long MIN_SEGMENT_BYTES = 1024 * 1024;
+    private static final int MAX_SEGMENTS = 8;
+    // 复制并计算哈希时每次读写的字节数 // Bytes read and written at a time while copying with a hash
+    private static final int HASHED_CHUNK = 256 * 1024;
+    // true 时相同内容也重新复制，不建立硬链接 // true to copy duplicate content again instead of hard linking it
+    private static final boolean COPY_DUPLICATES = Boolean.getBoolean("download.copyDuplicates");
+    public static final String PART_SUFFIX = ".part";
+    private static final String LINK_SUFFIX = ".link";
     private final String taskId;  // 唯一标识任务
     private final String sourcePath; // 源文件路径 // Source file path
     private final String destinationPath; // 目标文件路径 // Destination file path
-    private final Object lock = new Object(); // 用于暂停和取消的锁 // Lock for pause and cancel synchronization
+    // 用于暂停和取消的锁，不用监视器，暂停的虚拟线程不会占住载体线程
+    // Lock for pause and cancel, no monitor, so a paused virtual thread does not pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition resumed = lock.newCondition(); // 恢复或取消时通知 // Signalled on resume or cancel
     private volatile boolean isPaused = false; // 是否暂停 // Whether the task is paused
     private volatile boolean isCancelled = false; // 是否取消 // Whether the task is cancelled
     private ProgressCallback progressCallback; // 进度回调接口 // Progress callback interface
+    private final TokenBucket taskLimiter = new TokenBucket(0); // 本任务的速度上限 // Speed cap of this task
+    private TokenBucket globalLimiter = UNLIMITED; // 所有任务共享的速度上限 // Speed limit shared by all tasks
+    private boolean zeroCopy = !Boolean.getBoolean("download.streamCopy"); // 使用 FileChannel 零拷贝 // Copy with FileChannel.transferTo
+    private DownloadJournal journal; // null 时不记录断点 // No checkpoints when null
+    private long startOffset = 0; // 从 .part 文件的这个位置继续 // Continue the .part file from this offset
+    private long[] segmentOffsets = new long[0]; // 分段复制时每段的断点 // Checkpoint of each segment of a segmented copy
+    private int segments = 0; // 固定段数，0 表示按文件大小 // Fixed segment count, 0 to follow the file size
+    private ContentIndex contentIndex; // null 时不计算哈希也不去重 // No hash and no dedupe when null
+    private ByteBuffer hashedBuffer; // 计算哈希时的复制缓冲区 // Copy buffer while hashing
+    private volatile String contentHash; // 完成后的 SHA-256 // SHA-256 once completed
 
     public DownloadTask(String sourcePath, String destinationPath, ProgressCallback progressCallback, String taskId) {
         this.sourcePath = sourcePath;
@@ -24,6 +72,64 @@ public class DownloadTask implements Runnable {
         return taskId;
     }
 
+    // 设置本任务的速度上限（字节/秒），运行中也可以修改，0 表示不限速
+    // Set the speed cap of this task (bytes/second), also while it runs, 0 for none
+    public void setSpeedLimit(long bytesPerSecond) {
+        taskLimiter.setRate(bytesPerSecond);
+    }
+
+    // 和其他任务共享的限速器 // The limiter shared with the other tasks
+    public void setGlobalLimiter(TokenBucket globalLimiter) {
+        this.globalLimiter = globalLimiter;
+    }
+
+    // 定期把已写入磁盘的偏移量记到日志里，startOffset 是上次确认的偏移量，分段复制时 segmentOffsets 是各段的位置
+    // Checkpoint the offset on disk to the journal now and then, startOffset is the last verified offset,
+    // segmentOffsets the position of each segment when the copy was segmented
+    public void setJournal(DownloadJournal journal, long startOffset, long[] segmentOffsets) {
+        this.journal = journal;
+        this.startOffset = startOffset;
+        this.segmentOffsets = segmentOffsets;
+    }
+
+    // 复制时计算 SHA-256 并记录到内容索引，相同内容已下载过时校验后用硬链接代替复制的数据
+    // Hash the copy with SHA-256 into the content index, content downloaded before is verified and hard linked in place of the copied bytes
+    public void setContentIndex(ContentIndex contentIndex) {
+        this.contentIndex = contentIndex;
+    }
+
+    // 完成后的内容哈希，未完成或不计算哈希时为 null // The content hash once completed, null before or without a content index
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    // 固定段数，用于基准测试，0 表示按文件大小决定 // Fix the segment count, for the benchmark, 0 to follow the file size
+    public void setSegments(int segments) {
+        this.segments = segments;
+    }
+
+    // 未完成的数据写在这个文件里，完成后改名为目标文件 // Unfinished data goes to this file, it is renamed to the destination when done
+    public static Path partPath(String destinationPath) {
+        return Path.of(destinationPath + PART_SUFFIX);
+    }
+
+    // 删除 .part 文件和日志记录，用于从未开始就被取消的任务 // Delete the .part file and the journal record, for tasks cancelled before they ran
+    public void discard() {
+        try {
+            Files.deleteIfExists(partPath(destinationPath));
+        } catch (IOException e) {
+            System.err.println("Error deleting " + partPath(destinationPath) + ": " + e.getMessage());
+        }
+        if (journal != null) {
+            journal.remove(destinationPath);
+        }
+    }
+
+    // false 时使用旧的流复制 // false to copy through the old stream loop
+    public void setZeroCopy(boolean zeroCopy) {
+        this.zeroCopy = zeroCopy;
+    }
+
     //用于设置动态回调 // For setting a dynamic callback
     public void setProgressCallback(ProgressCallback progressCallback) {
         this.progressCallback = progressCallback;
@@ -31,76 +137,474 @@ public class DownloadTask implements Runnable {
 
     @Override
     public void run() {
+        if (zeroCopy) {
+            copyChannel();
+        } else {
+            copyStream();
+        }
+    }
+
+    // 本地文件用 transferTo 分块复制，数据不经过 Java 堆，块之间检查暂停和取消
+    // Local files are copied in chunks with transferTo, the data never enters the Java heap, pause and cancel are checked between chunks
+    // 数据先写入 .part 文件并定期记录断点，完成后原子改名；出错或崩溃时 .part 文件保留，下次从断点继续
+    // Data goes to a .part file with periodic checkpoints and is renamed atomically when done; on an error or crash the .part file stays for a resume
+    // 大文件分成几段同时复制 // Large files are copied as several segments at once
+    // 源文件复制过、没有变化并且内容还在下载目录时，不复制，直接链接到已下载的文件
+    // A source copied before, unchanged and whose content is still downloaded is not copied at all but linked to the downloaded file
+    // 否则有内容索引时顺序复制经过一个缓冲区，读一次同时计算哈希，完成后内容已经下载过时用硬链接代替这份数据
+    // Otherwise with a content index the sequential copy goes through one buffer and is hashed on the same read,
+    // and once done a hard link replaces the copy when the content was downloaded before
+    // 分段复制不计算哈希也不去重，这样不需要再读一遍 // Segmented copies are neither hashed nor deduplicated, so no extra read pass is needed
+    // 续传的部分先与源文件比较，损坏时从头开始 // A resumed part is compared with the source first and starts over when corrupt
+    private void copyChannel() {
         File source = new File(sourcePath);
         File destination = new File(destinationPath);
-
-        // 确保流可以在任意情况下正确关闭 // Ensure streams are closed properly in any situation
-        try (InputStream in = new FileInputStream(source);
-             OutputStream out = new FileOutputStream(destination)) {
-
-            if (!source.exists() || !source.isFile()) {
+        Path part = partPath(destinationPath);
+        try {
+            if (!source.isFile()) {
                 throw new FileNotFoundException("Source file does not exist: " + sourcePath);
             }
-
             if (!destination.getParentFile().exists() && !destination.getParentFile().mkdirs()) {
                 throw new IOException("Failed to create destination directory: " + destination.getParentFile().getAbsolutePath());
             }
 
-            long totalBytes = source.length();
-            long bytesRead = 0;
-            long lastTime = System.currentTimeMillis();
-            long bytesDownloadedThisSecond = 0;
+            // 复制开始时的大小和修改时间，记录到内容索引 // Size and modified time when the copy starts, recorded in the content index
+            long sourceSize = source.length();
+            long sourceModified = source.lastModified();
+            if (contentIndex != null && linkKnownSource(part, destination.toPath(), sourceSize, sourceModified)) {
+                if (journal != null) {
+                    journal.remove(destinationPath);
+                }
+                progressCallback.updateProgress(1.0);
+                progressCallback.onComplete();
+                return;
+            }
 
-            byte[] buffer = new byte[1024];
-            int bytes;
+            boolean completed;
+            MessageDigest digest = null;
+            try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(part, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                long totalBytes = in.size();
+                int segments = segmentCount(totalBytes);
+                if (segments > 1) {
+                    completed = copySegments(source.toPath(), in, out, totalBytes, segments);
+                } else {
+                    digest = contentIndex != null ? ContentIndex.newDigest() : null;
+                    completed = copySequential(in, out, totalBytes, digest);
+                }
+                if (completed) {
+                    out.force(false);
+                }
+            }
 
-            while ((bytes = in.read(buffer)) != -1) {
-                // 1. 同步检查暂停和取消状态 // 1. Synchronize to check pause and cancel status
-                synchronized (lock) {
-                    // 如果暂停，等待恢复 // If paused, wait for resume
-                    while (isPaused) {
-                        lock.wait();
-                    }
+            if (!completed) {
+                // 已取消：删除 .part 文件和日志记录 // Cancelled: delete the .part file and the journal record
+                if (Files.exists(part) && !part.toFile().delete()) {
+                    progressCallback.onError(new IOException("Failed to delete incomplete file"));
+                } else {
+                    System.out.println("Incomplete file deleted successfully.");
+                }
+                if (journal != null) {
+                    journal.remove(destinationPath);
+                }
+                progressCallback.onCancelled();
+                return;
+            }
+            String hash = digest != null ? ContentIndex.toHex(digest) : null;
+            if (hash == null || !linkExistingCopy(part, destination.toPath(), hash)) {
+                Files.move(part, destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            if (journal != null) {
+                journal.remove(destinationPath);
+            }
+            if (hash != null) {
+                contentIndex.add(destinationPath, hash, sourcePath, sourceSize, sourceModified);
+                contentHash = hash;
+            }
+            progressCallback.updateProgress(1.0);
+            progressCallback.onComplete();
+        } catch (IOException | InterruptedException e) {
+            // .part 文件和日志保留，下次可以继续 // The .part file and the journal record stay for a later resume
+            progressCallback.onError(e);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
-                    // 检查是否取消 // Check if cancelled
-                    if (isCancelled) {
-                        // 2. 确保流被关闭后尝试删除文件 // 2. Ensure streams are closed, then delete file
-                        closeStreams(in, out);
-                        if (destination.exists() && !destination.delete()) {
-                            progressCallback.onError(new IOException("Failed to delete incomplete file"));
-                        } else {
-                            System.out.println("Incomplete file deleted successfully.");
-                        }
-                        progressCallback.onCancelled();
-                        return; // 立即退出 // Exit immediately
-                    }
+    // 一个流顺序复制，digest 不为 null 时同时计算哈希，返回 false 表示已取消
+    // One sequential stream, hashed on the way when digest is not null, returns false when cancelled
+    private boolean copySequential(FileChannel in, FileChannel out, long totalBytes, MessageDigest digest)
+            throws IOException, InterruptedException {
+        // 断点之后的数据可能没写完，截掉后从断点继续 // Data after the checkpoint may be incomplete, cut it and continue there
+        long position = segmentOffsets.length == 0 && startOffset <= Math.min(out.size(), totalBytes) ? startOffset : 0;
+        if (digest != null && position > 0 && !matchesSource(in, out, 0, position, digest)) {
+            System.out.println("The resumed part of " + taskId + " does not match the source, starting over");
+            digest.reset();
+            position = 0;
+        }
+        out.truncate(position);
+        out.position(position);
+        long checkpointPosition = position;
+        long checkpointTime = System.nanoTime();
+
+        while (position < totalBytes) {
+            // 1. 只有暂停或取消时才加锁 // 1. Only take the lock while paused or cancelled
+            if (awaitResume()) {
+                return false;
+            }
+
+            // 2. 先从令牌桶预约这一块 // 2. Reserve this chunk from the token buckets first
+            long length = Math.min(chunkSize(), totalBytes - position);
+            awaitTokens(length);
+            if (isCancelled) {
+                continue;
+            }
+            long transferred = digest != null ? transferHashed(in, out, position, length, digest)
+                    : in.transferTo(position, length, out);
+            if (transferred <= 0) {
+                throw new IOException("Source file shrank while copying: " + sourcePath);
+            }
+            position += transferred;
+            progressCallback.updateProgress((double) position / totalBytes);
+
+            // 3. 先 force 到磁盘再记录偏移量，日志里的偏移量总是已确认的 // 3. Force to disk before recording, the journal only holds verified offsets
+            if (journal != null && (position - checkpointPosition >= CHECKPOINT_BYTES
+                    || System.nanoTime() - checkpointTime >= CHECKPOINT_NANOS)) {
+                out.force(false);
+                journal.checkpoint(destinationPath, position, new long[0]);
+                checkpointPosition = position;
+                checkpointTime = System.nanoTime();
+            }
+        }
+        return true;
+    }
+
+    // 读到直接缓冲区，计算哈希后写到同一位置，源文件只读一次 // Read into a direct buffer, hash it and write it to the same position, the source is read once
+    private long transferHashed(FileChannel in, FileChannel out, long position, long length, MessageDigest digest) throws IOException {
+        if (hashedBuffer == null) {
+            hashedBuffer = ByteBuffer.allocateDirect(HASHED_CHUNK);
+        }
+        long done = 0;
+        while (done < length) {
+            hashedBuffer.clear().limit((int) Math.min(HASHED_CHUNK, length - done));
+            int read = in.read(hashedBuffer, position + done);
+            if (read <= 0) {
+                break;
+            }
+            digest.update(hashedBuffer.flip());
+            hashedBuffer.rewind();
+            while (hashedBuffer.hasRemaining()) {
+                out.write(hashedBuffer, position + done + hashedBuffer.position());
+            }
+            done += read;
+        }
+        return done;
+    }
+
+    // 源文件复制过并且没有变化：它的内容还在下载目录时链接过去（就是目标文件本身时什么都不做），不复制，返回是否已完成
+    // The source was copied before and did not change: when its content is still downloaded it is linked (nothing to do when
+    // it is the destination itself) and nothing is copied, returns whether the download is done
+    private boolean linkKnownSource(Path part, Path destination, long sourceSize, long sourceModified) throws IOException {
+        if (COPY_DUPLICATES) {
+            return false;
+        }
+        String hash = contentIndex.sourceHash(sourcePath, sourceSize, sourceModified);
+        ContentIndex.Entry copy = hash != null ? contentIndex.findCopy(hash) : null;
+        if (copy == null) {
+            return false;
+        }
+        Path existing = Path.of(copy.path());
+        if (!existing.equals(destination) && !link(existing, destination)) {
+            return false;
+        }
+        Files.deleteIfExists(part);
+        contentIndex.add(destinationPath, hash, sourcePath, sourceSize, sourceModified);
+        contentHash = hash;
+        System.out.println("Skipped copying " + taskId + ", its content is already downloaded as " + existing);
+        return true;
+    }
+
+    // 内容相同的文件已经下载过：用指向它的硬链接代替刚复制的数据，返回是否已链接
+    // The content was downloaded before: a hard link to it replaces the bytes just copied, returns whether it was linked
+    // 记录的文件必须还在并且大小和修改时间没变，不能建立硬链接时（其他磁盘、不支持）保留复制的数据
+    // The recorded file must still be there with the same size and modified time, when no hard link can be made
+    // (other disk, not supported) the copied bytes are kept
+    private boolean linkExistingCopy(Path part, Path destination, String hash) throws IOException {
+        if (COPY_DUPLICATES) {
+            return false;
+        }
+        ContentIndex.Entry copy = contentIndex.findCopy(hash);
+        if (copy == null || Path.of(copy.path()).equals(destination)) {
+            return false; // 没有或覆盖自己，直接改名 // None, or replacing itself, a plain rename does it
+        }
+        if (!link(Path.of(copy.path()), destination)) {
+            return false;
+        }
+        Files.delete(part);
+        return true;
+    }
+
+    // 经过 .link 临时文件原子地把目标换成指向 existing 的硬链接，返回是否成功
+    // Atomically make the destination a hard link to existing through a .link temp file, returns whether it worked
+    private boolean link(Path existing, Path destination) {
+        Path link = Path.of(destinationPath + LINK_SUFFIX);
+        try {
+            Files.deleteIfExists(link);
+            Files.createLink(link, existing);
+            Files.move(link, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Linked " + destination + " to the identical " + existing);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            System.out.println("Keeping a copy of " + taskId + " instead of linking: " + e.getMessage());
+            try {
+                Files.deleteIfExists(link);
+            } catch (IOException ignored) {
+                // 下次覆盖 // Replaced next time
+            }
+            return false;
+        }
+    }
+
+    // 续传前比较 .part 文件和源文件在 [from, to) 的数据，digest 不为 null 时同时计算哈希
+    // Compare the .part file with the source over [from, to) before a resume, hashed on the way when digest is not null
+    private static boolean matchesSource(FileChannel in, FileChannel out, long from, long to, MessageDigest digest) throws IOException {
+        ByteBuffer expected = ByteBuffer.allocateDirect(HASHED_CHUNK);
+        ByteBuffer actual = ByteBuffer.allocateDirect(HASHED_CHUNK);
+        for (long position = from; position < to; ) {
+            int length = (int) Math.min(HASHED_CHUNK, to - position);
+            expected.clear().limit(length);
+            actual.clear().limit(length);
+            if (!readFully(in, expected, position) || !readFully(out, actual, position) || !expected.flip().equals(actual.flip())) {
+                return false;
+            }
+            if (digest != null) {
+                digest.update(expected.rewind());
+            }
+            position += length;
+        }
+        return true;
+    }
+
+    // 读满缓冲区，文件太短时返回 false // Fill the buffer, false when the file is too short
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 按文件大小决定段数，小文件一段 // The segment count follows the file size, small files are one segment
+    private int segmentCount(long totalBytes) {
+        if (segments > 0) {
+            return (int) Math.max(1, Math.min(segments, totalBytes / MIN_SEGMENT_BYTES));
+        }
+        if (totalBytes < SEGMENTED_FILE_BYTES) {
+            return 1;
+        }
+        // 每个核心最多一段，单核时分段只会更慢 // At most one segment per core, on one core segments only slow the copy down
+        int cap = Math.min(MAX_SEGMENTS, Runtime.getRuntime().availableProcessors());
+        return (int) Math.max(1, Math.min(cap, totalBytes / SEGMENT_TARGET_BYTES));
+    }
+
+    // 每段一个虚拟线程，用 transferFrom 按位置写入预先分配大小的 .part 文件，进度是所有段之和
+    // One virtual thread per segment, each writes its range of the preallocated .part file with positional transferFrom,
+    // the progress is the sum of all segments. The calling thread records the checkpoints while the segments run.
+    private boolean copySegments(Path source, FileChannel in, FileChannel out, long totalBytes, int count)
+            throws IOException, InterruptedException {
+        long[] ends = new long[count];
+        AtomicLongArray reached = new AtomicLongArray(count);
+        boolean resume = segmentOffsets.length == count;
+        long done = 0;
+        for (int i = 0; i < count; i++) {
+            long start = totalBytes * i / count;
+            ends[i] = totalBytes * (i + 1) / count;
+            long offset = resume ? segmentOffsets[i] : start;
+            if (offset < start || offset > ends[i]) {
+                offset = start;
+            }
+            // 有内容索引时续传的部分先与源文件比较 // With a content index the resumed range is compared with the source first
+            if (contentIndex != null && offset > start && !matchesSource(in, out, start, offset, null)) {
+                System.out.println("Segment " + i + " of " + taskId + " does not match the source, starting it over");
+                offset = start;
+            }
+            reached.set(i, offset);
+            done += offset - start;
+        }
+        // 预先分配目标大小 // Preallocate the destination size
+        if (out.size() > totalBytes) {
+            out.truncate(totalBytes);
+        } else if (out.size() < totalBytes) {
+            out.write(ByteBuffer.wrap(new byte[1]), totalBytes - 1);
+        }
+
+        AtomicLong copied = new AtomicLong(done);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        CountDownLatch finished = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            int segment = i;
+            Thread.ofVirtual().name(taskId + "-segment-" + i).start(() -> {
+                try {
+                    copySegment(source, out, segment, reached, ends[segment], copied, totalBytes, failure);
+                } catch (IOException | InterruptedException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        while (!finished.await(CHECKPOINT_NANOS, TimeUnit.NANOSECONDS)) {
+            checkpointSegments(out, reached, copied);
+        }
+        Exception error = failure.get();
+        if (error != null) {
+            checkpointSegments(out, reached, copied);
+            throw error instanceof IOException ioException ? ioException : new IOException(error);
+        }
+        return !isCancelled;
+    }
+
+    // 一段的复制循环，暂停、取消和限速对每一段都生效 // The copy loop of one segment, pause, cancel and the speed limits apply to every segment
+    private void copySegment(Path source, FileChannel out, int segment, AtomicLongArray reached, long end, AtomicLong copied,
+                             long totalBytes, AtomicReference<Exception> failure) throws IOException, InterruptedException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            long position = reached.get(segment);
+            while (position < end && failure.get() == null) {
+                if (awaitResume()) {
+                    return;
+                }
+                long length = Math.min(chunkSize(), end - position);
+                awaitTokens(length);
+                if (isCancelled) {
+                    continue;
+                }
+                in.position(position);
+                long transferred = out.transferFrom(in, position, length);
+                if (transferred <= 0) {
+                    throw new IOException("Source file shrank while copying: " + sourcePath);
+                }
+                position += transferred;
+                reached.set(segment, position);
+                progressCallback.updateProgress((double) copied.addAndGet(transferred) / totalBytes);
+            }
+        }
+    }
+
+    // 先记下各段位置再 force，记录的位置之前的数据都已在磁盘上 // Take the positions before the force, so everything before them is on disk
+    private void checkpointSegments(FileChannel out, AtomicLongArray reached, AtomicLong copied) throws IOException {
+        if (journal == null || isCancelled) {
+            return;
+        }
+        long done = copied.get();
+        long[] positions = new long[reached.length()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = reached.get(i);
+        }
+        out.force(false);
+        journal.checkpoint(destinationPath, done, positions);
+    }
+
+    // 暂停时等待，返回是否已取消 // Wait while paused, returns whether the task was cancelled
+    private boolean awaitResume() throws InterruptedException {
+        if (isPaused && !isCancelled) {
+            lock.lock();
+            try {
+                while (isPaused && !isCancelled) {
+                    resumed.await();
                 }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return isCancelled;
+    }
+
+    // 旧的 1 KB 缓冲流复制，直接写目标文件，不能断点续传 // The old stream copy through a 1 KB buffer, writes the destination directly and can not resume
+    private void copyStream() {
+        File source = new File(sourcePath);
+        File destination = new File(destinationPath);
+
+        long totalBytes = source.length();
+        long sourceModified = source.lastModified();
+        long bytesRead = 0;
+        MessageDigest digest = contentIndex != null ? ContentIndex.newDigest() : null;
+        boolean cancelled = false;
+
+        try {
+            // 确保流可以在任意情况下正确关闭，取消和完成都在流关闭之后处理
+            // Ensure streams are closed properly in any situation, cancel and completion are handled once they are closed
+            try (InputStream in = new FileInputStream(source);
+                 OutputStream out = new FileOutputStream(destination)) {
+
+                if (!source.exists() || !source.isFile()) {
+                    throw new FileNotFoundException("Source file does not exist: " + sourcePath);
+                }
+
+                if (!destination.getParentFile().exists() && !destination.getParentFile().mkdirs()) {
+                    throw new IOException("Failed to create destination directory: " + destination.getParentFile().getAbsolutePath());
+                }
+
+                byte[] buffer = new byte[1024];
+                int bytes;
 
-                // 写入数据并更新进度 // Write data and update progress
-                out.write(buffer, 0, bytes);
-                bytesRead += bytes;
-                bytesDownloadedThisSecond += bytes;
-
-                // 更新进度条 // Update progress bar
-                progressCallback.updateProgress((double) bytesRead / totalBytes);
-
-                // 3. 控制下载速度 // 3. Control download speed
-                synchronized (lock) {
-                    // 下载速度（字节/秒），这里可以限制下载速度大小 // Download speed (bytes/second), can limit download speed
-                    long speed = 1024 * 100;
-                    if (bytesDownloadedThisSecond >= speed) {
-                        long currentTime = System.currentTimeMillis();
-                        long timeElapsed = currentTime - lastTime;
-                        if (timeElapsed < 1000) {
-                            lock.wait(1000 - timeElapsed); // 进入等待，减少资源消耗
+                while ((bytes = in.read(buffer)) != -1) {
+                    // 1. 同步检查暂停和取消状态 // 1. Synchronize to check pause and cancel status
+                    lock.lock();
+                    try {
+                        // 如果暂停，等待恢复 // If paused, wait for resume
+                        while (isPaused && !isCancelled) {
+                            resumed.await();
                         }
-                        lastTime = System.currentTimeMillis();
-                        bytesDownloadedThisSecond = 0;
+                        cancelled = isCancelled;
+                    } finally {
+                        lock.unlock();
                     }
+
+                    // 检查是否取消，跳出后流先被关闭 // Check if cancelled, the streams are closed once the loop is left
+                    if (cancelled) {
+                        break;
+                    }
+
+                    // 3. 控制下载速度 // 3. Control download speed
+                    awaitTokens(bytes);
+
+                    // 写入数据并更新进度 // Write data and update progress
+                    out.write(buffer, 0, bytes);
+                    if (digest != null) {
+                        digest.update(buffer, 0, bytes);
+                    }
+                    bytesRead += bytes;
+
+                    // 更新进度条 // Update progress bar
+                    progressCallback.updateProgress((double) bytesRead / totalBytes);
+                }
+            }
+
+            if (cancelled) {
+                // 2. 流已关闭，删除未完成的文件 // 2. The streams are closed, delete the incomplete file
+                if (destination.exists() && !destination.delete()) {
+                    progressCallback.onError(new IOException("Failed to delete incomplete file"));
+                } else {
+                    System.out.println("Incomplete file deleted successfully.");
+                }
+                if (journal != null) {
+                    journal.remove(destinationPath);
                 }
+                progressCallback.onCancelled();
+                return; // 立即退出 // Exit immediately
             }
 
             // 下载完成，更新进度并回调 // Download complete, update progress and callback
+            if (journal != null) {
+                journal.remove(destinationPath);
+            }
+            if (digest != null) {
+                contentHash = ContentIndex.toHex(digest);
+                contentIndex.add(destinationPath, contentHash, sourcePath, totalBytes, sourceModified);
+            }
             progressCallback.updateProgress(1.0);
             progressCallback.onComplete();
 
@@ -113,37 +617,57 @@ public class DownloadTask implements Runnable {
         }
     }
 
-    // 辅助方法：确保流安全关闭 // Helper method: ensure streams are safely closed
-    private void closeStreams(InputStream in, OutputStream out) {
-        try {
-            if (in != null) in.close();
-            if (out != null) out.close();
-        } catch (IOException e) {
-            System.err.println("Error closing streams: " + e.getMessage());
-            App.updateWarning("Error closing streams");
+    // 限速时按较小的速率分块，进度条每秒更新约 10 次 // Chunks follow the lower rate while limited, the progress bar moves about 10 times a second
+    private long chunkSize() {
+        long taskRate = taskLimiter.getRate();
+        long globalRate = globalLimiter.getRate();
+        long rate = taskRate <= 0 ? globalRate : globalRate <= 0 ? taskRate : Math.min(taskRate, globalRate);
+        if (rate <= 0) {
+            return TRANSFER_CHUNK;
         }
+        return Math.max(MIN_LIMITED_CHUNK, Math.min(MAX_LIMITED_CHUNK, rate / PROGRESS_STEPS_PER_SECOND));
+    }
+
+    // 先等本任务的上限，再从全局令牌桶取，受本任务上限限制时不会占用全局的令牌；取消会打断等待
+    // Wait for the cap of this task first and only then take from the global bucket, so a task held back by its own cap
+    // does not use up global tokens; a cancel cuts the wait short
+    private void awaitTokens(long bytes) throws InterruptedException {
+        taskLimiter.acquire(bytes, () -> isCancelled);
+        globalLimiter.acquire(bytes, () -> isCancelled);
     }
 
     // 暂停任务 // Pause the task
     public void pause() {
-        synchronized (lock) {
+        lock.lock();
+        try {
             isPaused = true;
+        } finally {
+            lock.unlock();
         }
     }
 
     // 恢复任务 // Resume the task
     public void resume() {
-        synchronized (lock) {
+        lock.lock();
+        try {
             isPaused = false;
-            lock.notifyAll();
+            resumed.signalAll();
+        } finally {
+            lock.unlock();
         }
     }
 
     // 取消任务 // Cancel the task
     public void cancel() {
-        synchronized (lock) {
+        lock.lock();
+        try {
             isCancelled = true;
-            lock.notifyAll();
+            resumed.signalAll();
+        } finally {
+            lock.unlock();
         }
+        // 在令牌桶里等待的线程 // Threads waiting in the token buckets
+        taskLimiter.wakeWaiters();
+        globalLimiter.wakeWaiters();
     }
 }
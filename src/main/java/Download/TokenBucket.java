@@ -0,0 +1,91 @@
+package Download;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+// 无锁令牌桶：记录已预约的字节全部"付清"的时间点，每次预约用一次 CAS 把它向后推
+// Lock-free token bucket: it keeps the time at which every byte reserved so far is paid off, each reservation pushes it on with one CAS
+// 预约立即返回需要等待的纳秒数；acquire 用 LockSupport.parkNanos 等待，不持有监视器，虚拟线程不会占住载体线程
+// A reservation returns at once with the nanoseconds to wait; acquire waits with LockSupport.parkNanos and holds no monitor,
+// so a waiting virtual thread does not pin its carrier
+// 修改速率时丢弃按旧速率积压的预约并唤醒等待者，它们按新速率重新预约，提高或取消限速立即生效
+// Changing the rate drops the backlog reserved at the old rate and wakes the waiters, which reserve again at the new rate,
+// so raising or removing the limit applies at once
+// 空闲时不积攒令牌，长期速率就是设定的速率，与并发任务数无关
+// No tokens pile up while idle, so the long term rate is the configured rate whatever the number of tasks
+public class TokenBucket {
+    private final AtomicLong paidOffAt = new AtomicLong(System.nanoTime()); // 已预约字节付清的时间 // When the reserved bytes are paid off
+    private final AtomicLong rateChanges = new AtomicLong(); // 速率修改次数 // Number of rate changes
+    private final Set<Thread> waiters = ConcurrentHashMap.newKeySet(); // 正在 acquire 里等待的线程 // Threads waiting in acquire
+    private volatile long rate; // 字节/秒，0 表示不限速 // Bytes per second, 0 for no limit
+
+    public TokenBucket(long bytesPerSecond) {
+        this.rate = Math.max(0, bytesPerSecond);
+    }
+
+    // 运行时修改速率，积压的预约作废，等待者按新速率重新预约
+    // Change the rate at runtime, the reserved backlog is dropped and the waiters reserve again at the new rate
+    public void setRate(long bytesPerSecond) {
+        this.rate = Math.max(0, bytesPerSecond);
+        paidOffAt.set(System.nanoTime());
+        rateChanges.incrementAndGet();
+        wakeWaiters();
+    }
+
+    public long getRate() {
+        return rate;
+    }
+
+    // 预约字节，返回开始传输前要等待的纳秒数 // Reserve bytes, returns the nanoseconds to wait before moving them
+    public long reserve(long bytes) {
+        long bytesPerSecond = rate;
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+        long cost = (long) (bytes * 1e9 / bytesPerSecond);
+        while (true) {
+            long now = System.nanoTime();
+            long paidOff = paidOffAt.get();
+            long start = Math.max(paidOff, now);
+            if (paidOffAt.compareAndSet(paidOff, start + cost)) {
+                return start - now;
+            }
+        }
+    }
+
+    // 预约并等待到可以传输为止；速率修改后按新速率重新预约，stop 为 true 时（被唤醒后）提前返回
+    // Reserve and wait until the bytes may move; after a rate change they are reserved again at the new rate,
+    // returns early once stop is true (checked whenever the thread wakes up)
+    public void acquire(long bytes, BooleanSupplier stop) throws InterruptedException {
+        Thread thread = Thread.currentThread();
+        waiters.add(thread);
+        try {
+            while (!stop.getAsBoolean()) {
+                long changes = rateChanges.get();
+                long deadline = System.nanoTime() + reserve(bytes);
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0 && rateChanges.get() == changes && !stop.getAsBoolean()) {
+                    LockSupport.parkNanos(this, remaining);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+                if (rateChanges.get() == changes) {
+                    return;
+                }
+            }
+        } finally {
+            waiters.remove(thread);
+        }
+    }
+
+    // 唤醒等待者重新检查 stop 条件，例如任务被取消时 // Wake the waiters to check their stop condition again, e.g. when a task is cancelled
+    public void wakeWaiters() {
+        for (Thread waiter : waiters) {
+            LockSupport.unpark(waiter);
+        }
+    }
+}
@@ -1,14 +1,21 @@
 package UI;
 
+import AudioPlayer.AudioAnalyzer;
 import AudioPlayer.AudioPlayer;
+import AudioPlayer.Track;
+import AudioPlayer.TrackTable;
 import Download.DownloadManager;
+import Download.DownloadScheduler;
 import javafx.animation.PauseTransition;
 import javafx.application.Application;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Cursor;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
@@ -17,9 +24,8 @@ import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 import javafx.util.Duration;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
+import java.lang.management.ManagementFactory;
+import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 public class App extends Application {
@@ -27,40 +33,51 @@ public class App extends Application {
     private final static int BUTTON_SIZE = 25;
     private final static int PROGRESS_WIDTH = 475;
     private static final ProgressBar progressBar = new ProgressBar(0.0);
-    private static final int ALBUM_SIZE = 113;
+    private static final Canvas waveform = new Canvas(PROGRESS_WIDTH, 18);
+    public static final int ALBUM_SIZE = 113;
+    private static final int ROW_COVER_SIZE = 40;
     private static final VBox downloadPage = new VBox();
-    private static final DownloadManager dm = new DownloadManager();
+    private static DownloadManager dm;
     private static final Label currentSongName = new Label();
-    private static final Image pauseIcon = new Image(Objects.requireNonNull(App.class.getResourceAsStream("/icons/pause.png")));
-    private static final Image hoverPauseIcon = new Image(Objects.requireNonNull(App.class.getResourceAsStream("/icons/pauseHover.png")));
-    private static final Image playIcon = new Image(Objects.requireNonNull(App.class.getResourceAsStream("/icons/play.png")));
-    private static final Image hoverPlayIcon = new Image(Objects.requireNonNull(App.class.getResourceAsStream("/icons/playHover.png")));
-    private static final Image cancelIcon = new Image(Objects.requireNonNull(App.class.getResourceAsStream("/icons/cancel.png")));
-    private static final Image hoverCancelIcon = new Image(
-            Objects.requireNonNull(App.class.getResourceAsStream("/icons/cancelHover.png")));
+    private static final int VOLUME_BUTTON_SIZE = 15;
+    private static final long launchTime = System.nanoTime();
+    private static final int HOVER_TOGGLES = 1000;
+    private static final Image pauseIcon = Icons.get("pause", BUTTON_SIZE);
+    private static final Image hoverPauseIcon = Icons.get("pauseHover", BUTTON_SIZE);
+    private static final Image playIcon = Icons.get("play", BUTTON_SIZE);
+    private static final Image hoverPlayIcon = Icons.get("playHover", BUTTON_SIZE);
+    private static final Image cancelIcon = Icons.get("cancel", BUTTON_SIZE);
+    private static final Image hoverCancelIcon = Icons.get("cancelHover", BUTTON_SIZE);
     private static final Label currentTimeLabel = new Label("00: 00");
+    // the second shown by currentTimeLabel
+    private static long shownSecond = 0;
     private static final Label songDuration = new Label("00: 00");
-    private static final List<HBox> downloadRows = new ArrayList<>();
+    private static final Map<Integer, HBox> downloadRows = new HashMap<>(); // download rows by track id
     private static final Label warningLabel = new Label();
+    // choices of the download speed limits, in KB/s, 0 is no limit
+    private static final long[] SPEED_LIMITS = {0, 50, 100, 200, 500, 1024, 2048, 5120, 10240};
     private static final ImageView album = new ImageView();
     private static final Label artistsLabel = new Label();
     public static boolean isMute = false;
-    private static List<String> playlist;
-    private static Button modeButton;
+    private static TrackTable trackTable;
+    private static IconButton modeButton;
     private static HBox noDownloadMessage;
     private final VBox playPage = new VBox();
-    private final ScrollPane playPageScrollPane = new ScrollPane();
-    private final VBox playPageContent = new VBox();
+    // the song list is virtualized: only the visible rows exist as nodes and are reused while scrolling
+    private final ListView<Track> songList = new ListView<>();
+    private final ObservableList<Track> songItems = FXCollections.observableArrayList();
+    private final TextField searchField = new TextField();
     private final BorderPane root = new BorderPane();
     private final AudioPlayer player = new AudioPlayer();
-    private Button playPauseButton;
+    private IconButton playPauseButton;
     private boolean isPlaying = false;
     private Stage primaryStage;
 
     //create a new download row in the download page
-    public static void addDownloadRow(int index, int downloadIndex) {
+    //paused rows are downloads interrupted in the last run, the play button resumes them
+    public static void addDownloadRow(int trackId, int downloadIndex, boolean paused) {
         downloadPage.getChildren().remove(noDownloadMessage);
-        final boolean[] isDownloading = {true};
+        final boolean[] isDownloading = {!paused};
         HBox downloadRow = new HBox(5);
 
         downloadRow.setPrefHeight(50);
@@ -70,7 +87,7 @@ public class App extends Application {
         downloadNumber.setPrefWidth(50);
         downloadNumber.setStyle("-fx-font-size: 16px;");
 
-        Label songName = new Label(playlist.get(index));
+        Label songName = new Label(trackTable.getName(trackId));
         songName.setStyle("-fx-font-size: 16px;");
 
         Region spacer = new Region();
@@ -80,11 +97,21 @@ public class App extends Application {
         ProgressBar progressBar = new ProgressBar(0.0);
         progressBar.setPrefWidth(200);
 
-        Button pauseButton = getButton(pauseIcon, hoverPauseIcon, BUTTON_SIZE);
-        Button cancelButton = getButton(cancelIcon, hoverCancelIcon, BUTTON_SIZE);
+        // queued, active or paused, set by the download scheduler
+        Label stateLabel = new Label();
+        stateLabel.setPrefWidth(55);
+        stateLabel.setTextFill(Color.GRAY);
 
-        downloadRow.getChildren().addAll(downloadNumber, songName, spacer, progressBar, pauseButton, cancelButton);
-        downloadRows.add(downloadRow);
+        Button frontButton = new Button("Top");
+        frontButton.setOnMouseEntered(_ -> frontButton.setCursor(Cursor.HAND));
+        frontButton.setOnMouseExited(_ -> frontButton.setCursor(Cursor.DEFAULT));
+        frontButton.setOnAction(_ -> dm.moveToFront(trackId));
+
+        IconButton pauseButton = paused ? getButton(playIcon, hoverPlayIcon, BUTTON_SIZE) : getButton(pauseIcon, hoverPauseIcon, BUTTON_SIZE);
+        IconButton cancelButton = getButton(cancelIcon, hoverCancelIcon, BUTTON_SIZE);
+
+        downloadRow.getChildren().addAll(downloadNumber, songName, spacer, progressBar, stateLabel, frontButton, pauseButton, cancelButton);
+        downloadRows.put(trackId, downloadRow);
 
         downloadPage.getChildren().add(downloadRow);
 
@@ -93,30 +120,57 @@ public class App extends Application {
 
         pauseButton.setOnAction(_ -> {
             if (isDownloading[0]) {
-                dm.pauseTask(playlist.get(index));
+                dm.pauseTask(trackId);
                 modifyButton(playIcon, hoverPlayIcon, pauseButton);
                 isDownloading[0] = false;
             } else {
-                dm.resumeTask(playlist.get(index));
+                dm.resumeTask(trackId);
                 modifyButton(pauseIcon, hoverPauseIcon, pauseButton);
                 isDownloading[0] = true;
             }
         });
 
         cancelButton.setOnAction(_ -> {
-            dm.removeTask(playlist.get(index));
-            removeDownloadTask(playlist.get(index));
+            dm.removeTask(trackId);
+            removeDownloadTask(trackId);
         });
     }
 
     //called by download manager to remove the download row in the gui
-    public static void removeDownloadTask(String taskID) {
-        for (HBox downloadRow : downloadRows) {
-            if (((Label) downloadRow.getChildren().get(1)).getText().equals(taskID)) {
-                downloadPage.getChildren().remove(downloadRow);
-                downloadRows.remove(downloadRow);
-                return;
-            }
+    public static void removeDownloadTask(int trackId) {
+        HBox downloadRow = downloadRows.remove(trackId);
+        if (downloadRow != null) {
+            downloadPage.getChildren().remove(downloadRow);
+        }
+    }
+
+    //called by the download manager when a task is queued, starts, is paused or resumed
+    public static void updateDownloadState(int trackId, DownloadScheduler.State state) {
+        HBox downloadRow = downloadRows.get(trackId);
+        if (downloadRow != null) {
+            String text = switch (state) {
+                case QUEUED -> "Queued";
+                case ACTIVE -> "Active";
+                case PAUSED -> "Paused";
+            };
+            ((Label) downloadRow.getChildren().get(4)).setText(text);
+            downloadRow.getChildren().get(5).setVisible(state == DownloadScheduler.State.QUEUED);
+        }
+    }
+
+    //called by the download manager when a task failed, the row stays until it is dismissed with the cancel button
+    public static void markDownloadFailed(int trackId) {
+        HBox downloadRow = downloadRows.get(trackId);
+        if (downloadRow != null) {
+            Label stateLabel = (Label) downloadRow.getChildren().get(4);
+            stateLabel.setText("Failed");
+            stateLabel.setTextFill(Color.RED);
+            downloadRow.getChildren().get(5).setVisible(false);
+            downloadRow.getChildren().get(6).setVisible(false);
+            ((IconButton) downloadRow.getChildren().get(7)).setOnAction(_ -> {
+                removeDownloadTask(trackId);
+                if (downloadRows.isEmpty()) showNoDownloadMessage();
+            });
         }
     }
 
@@ -126,13 +180,19 @@ public class App extends Application {
     }
 
     //called by the audio player to update to progress bar of the currently playing song
+    //skipped while the bar would move less than half a pixel
     public static void updatePlayProgress(double progress) {
-        progressBar.setProgress(progress);
+        if (Math.abs(progress - progressBar.getProgress()) * PROGRESS_WIDTH >= 0.5) {
+            progressBar.setProgress(progress);
+        }
     }
 
     //called by the download manager to update the progress bar of each download task
-    public static void updateDownloadProgress(double progress, int index) {
-        ((ProgressBar) downloadRows.get(index).getChildren().get(3)).setProgress(progress);
+    public static void updateDownloadProgress(double progress, int trackId) {
+        HBox downloadRow = downloadRows.get(trackId);
+        if (downloadRow != null) {
+            ((ProgressBar) downloadRow.getChildren().get(3)).setProgress(progress);
+        }
     }
 
     //called when the program wants to warn the user
@@ -153,6 +213,23 @@ public class App extends Application {
         formatTime(duration, songDuration);
     }
 
+    //draw the waveform overview of the current track over the progress bar, cleared while it is not analysed
+    public static void updateWaveform(AudioAnalyzer.Analysis analysis) {
+        GraphicsContext gc = waveform.getGraphicsContext2D();
+        gc.clearRect(0, 0, waveform.getWidth(), waveform.getHeight());
+        if (analysis == null || analysis.waveform().length == 0) {
+            return;
+        }
+        byte[] points = analysis.waveform();
+        double width = waveform.getWidth() / points.length;
+        double middle = waveform.getHeight() / 2;
+        gc.setFill(Color.rgb(0, 0, 0, 0.25));
+        for (int i = 0; i < points.length; i++) {
+            double height = Math.max(1, (points[i] & 0xFF) / 255.0 * (waveform.getHeight() - 4));
+            gc.fillRect(i * width, middle - height / 2, Math.max(1, width - 0.5), height);
+        }
+    }
+
     //format seconds into minute: second
     private static void formatTime(Duration duration, Label label) {
         double totalSeconds = duration.toSeconds();
@@ -162,51 +239,23 @@ public class App extends Application {
         label.setText(formattedDuration);
     }
 
-    //called each second to display the current time of the song
-    public static void updateCurrentTime(Duration duration) {
-        formatTime(duration, currentTimeLabel);
-    }
-
-    //used to create and return a button
-    private static Button getButton(Image defaultIcon, Image hoverIcon, int size) {
-        Button button = new Button();
-        modifyButton(defaultIcon, hoverIcon, button, size);
-        return button;
-    }
-
-    //used to change the icons of a button
-    private static void modifyButton(Image defaultIcon, Image hoverIcon, Button button) {
-        modifyButtonCore(defaultIcon, hoverIcon, button, BUTTON_SIZE);
+    //called on every progress update, the label is only formatted when the second changes
+    public static void updateCurrentTime(double millis) {
+        long second = (long) (millis / 1000);
+        if (second != shownSecond) {
+            shownSecond = second;
+            formatTime(Duration.seconds(second), currentTimeLabel);
+        }
     }
 
-    private static void modifyButton(Image defaultIcon, Image hoverIcon, Button button, int size) {
-        modifyButtonCore(defaultIcon, hoverIcon, button, size);
+    //used to create and return a button, the icons come from the shared registry
+    private static IconButton getButton(Image defaultIcon, Image hoverIcon, int size) {
+        return new IconButton(defaultIcon, hoverIcon, size);
     }
 
-    private static void modifyButtonCore(Image defaultIcon, Image hoverIcon, Button button, int size) {
-        ImageView iconView = new ImageView(defaultIcon);
-        iconView.setFitWidth(size);
-        iconView.setFitHeight(size);
-        iconView.setPreserveRatio(true);
-        button.setGraphic(iconView);
-        button.setStyle("-fx-background-color: transparent;");
-
-        button.setOnMouseEntered(_ -> {
-            ImageView hoverIconView = new ImageView(hoverIcon);
-            hoverIconView.setFitWidth(size);
-            hoverIconView.setFitHeight(size);
-            hoverIconView.setPreserveRatio(true);
-            button.setGraphic(hoverIconView);
-            button.setCursor(Cursor.HAND);
-        });
-        button.setOnMouseExited(_ -> {
-            ImageView defaultIconView = new ImageView(defaultIcon);
-            defaultIconView.setFitWidth(size);
-            defaultIconView.setFitHeight(size);
-            defaultIconView.setPreserveRatio(true);
-            button.setGraphic(defaultIconView);
-            button.setCursor(Cursor.DEFAULT);
-        });
+    //used to change the icons of a button, the button keeps its image views
+    private static void modifyButton(Image defaultIcon, Image hoverIcon, IconButton button) {
+        button.setIcons(defaultIcon, hoverIcon);
     }
 
     public static void main(String[] args) {
@@ -216,63 +265,140 @@ public class App extends Application {
     @Override
     public void start(Stage primaryStage) {
         this.primaryStage = primaryStage;
-        playlist = player.getPlaylist();
-        System.out.println("playlist size: " + playlist.size());
+        player.addListener(new AppPlaybackListener(player.getThumbnails()));
+        player.start();
+        trackTable = player.getTrackTable();
+        dm = new DownloadManager(trackTable);
+        System.out.println("playlist size: " + player.getTracks().size());
+        // the last track is cued before the first frame, the controls below start from the restored state
+        player.restoreSession();
+        isMute = player.isMute();
         primaryStage.setTitle("Music Player Simulator");
-        Image icon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/play.png")));
-        primaryStage.getIcons().add(icon);
+        primaryStage.getIcons().add(Icons.get("play", 0));
 
         initContent();
 
         Label noDownloadLabel = new Label("No Download");
         noDownloadMessage = new HBox(noDownloadLabel);
         noDownloadMessage.setAlignment(Pos.CENTER);
-        downloadPage.getChildren().add(noDownloadMessage);
+        downloadPage.getChildren().addAll(getSpeedLimitBar(), noDownloadMessage);
+        dm.restoreInterrupted();
         noDownloadLabel.setStyle("-fx-font-size: 16px;");
 
         loadPlayPage();
+        player.startLibraryWatcher(this::reloadPlayPage);
 
-        root.setCenter(playPageScrollPane);
+        root.setCenter(playPage);
 
         Scene scene = new Scene(root, 700, 700);
         primaryStage.setScene(scene);
         primaryStage.setResizable(false);
         primaryStage.show();
+        primaryStage.iconifiedProperty().addListener((_, _, iconified) -> player.setWindowHidden(iconified));
+
+        String startup = String.format("%.0f ms, %d icon images", (System.nanoTime() - launchTime) / 1e6, Icons.loadedCount());
+        System.out.println("Startup: " + startup);
+        Perf.updateStartupTime(startup);
+        String hover = measureHoverAllocation();
+        System.out.println("Hover allocation: " + hover);
+        Perf.updateHoverAllocation(hover);
+    }
+
+    //bytes the FX thread allocates for HOVER_TOGGLES mouse enters and exits, with a new ImageView per toggle as the buttons
+    //used to do, and with an IconButton switching its two graphics
+    private static String measureHoverAllocation() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads)
+                || !threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return "not supported";
+        }
+        Button oldButton = new Button();
+        IconButton newButton = getButton(playIcon, hoverPlayIcon, BUTTON_SIZE);
+        //a first round so that class loading and JIT are not counted
+        toggleWithNewViews(oldButton);
+        toggleGraphics(newButton);
+        long threadId = Thread.currentThread().threadId();
+        long start = threads.getThreadAllocatedBytes(threadId);
+        toggleWithNewViews(oldButton);
+        long oldBytes = threads.getThreadAllocatedBytes(threadId) - start;
+        start = threads.getThreadAllocatedBytes(threadId);
+        toggleGraphics(newButton);
+        long newBytes = threads.getThreadAllocatedBytes(threadId) - start;
+        return String.format("%d toggles, %d KB with new ImageViews, %d KB with IconButton",
+                HOVER_TOGGLES, oldBytes / 1024, newBytes / 1024);
+    }
+
+    private static void toggleWithNewViews(Button button) {
+        for (int i = 0; i < HOVER_TOGGLES; i++) {
+            ImageView iconView = new ImageView(i % 2 == 0 ? hoverPlayIcon : playIcon);
+            iconView.setFitWidth(BUTTON_SIZE);
+            iconView.setFitHeight(BUTTON_SIZE);
+            iconView.setPreserveRatio(true);
+            button.setGraphic(iconView);
+        }
+    }
+
+    private static void toggleGraphics(IconButton button) {
+        for (int i = 0; i < HOVER_TOGGLES; i++) {
+            button.showHover(i % 2 == 0);
+        }
+    }
+
+    //the total and per download speed limits above the download rows, changes apply to running downloads at once
+    private static HBox getSpeedLimitBar() {
+        ComboBox<String> totalLimit = getSpeedLimitBox(dm.getGlobalLimit());
+        totalLimit.setOnAction(_ -> dm.setGlobalLimit(SPEED_LIMITS[totalLimit.getSelectionModel().getSelectedIndex()] * 1024));
+        ComboBox<String> taskLimit = getSpeedLimitBox(dm.getTaskLimit());
+        taskLimit.setOnAction(_ -> dm.setTaskLimit(SPEED_LIMITS[taskLimit.getSelectionModel().getSelectedIndex()] * 1024));
+
+        HBox speedLimitBar = new HBox(10, new Label("Total limit"), totalLimit, new Label("Per download"), taskLimit);
+        speedLimitBar.setAlignment(Pos.CENTER_LEFT);
+        speedLimitBar.setStyle("-fx-padding: 6;");
+        return speedLimitBar;
+    }
+
+    private static ComboBox<String> getSpeedLimitBox(long bytesPerSecond) {
+        ComboBox<String> box = new ComboBox<>();
+        int selected = -1;
+        for (int i = 0; i < SPEED_LIMITS.length; i++) {
+            long kilobytes = SPEED_LIMITS[i];
+            box.getItems().add(kilobytes == 0 ? "No limit" : kilobytes >= 1024 ? kilobytes / 1024 + " MB/s" : kilobytes + " KB/s");
+            if (kilobytes * 1024 == bytesPerSecond) {
+                selected = i;
+            }
+        }
+        if (selected >= 0) {
+            box.getSelectionModel().select(selected);
+        } else {
+            box.setPromptText(bytesPerSecond / 1024 + " KB/s");
+        }
+        return box;
     }
 
     // load constant content of the player
     private void initContent() {
-        playPageScrollPane.setContent(playPageContent);
-        playPageScrollPane.setFitToWidth(true); // Makes the content fit the width of the scroll pane
-        playPageScrollPane.setStyle("-fx-background-color: transparent;"); // Optional: To match the background
-
-        playPageContent.setStyle("-fx-background-color: #f8f8f8;"); // Set a background color
-        root.setCenter(playPageScrollPane);
-        Image prevIcon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/previous.png")));
-        Image hoverPrevIcon = new Image(
-                Objects.requireNonNull(getClass().getResourceAsStream("/icons/previousHover.png")));
-        Image nextIcon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/next.png")));
-        Image hoverNextIcon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/nextHover.png")));
-
-        Image pauseIcon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/pause.png")));
-        Image hoverPauseIcon = new Image(
-                Objects.requireNonNull(getClass().getResourceAsStream("/icons/pauseHover.png")));
-
-        Image cycleIcon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/cycle.png")));
-        Image hoverCycleIcon = new Image(
-                Objects.requireNonNull(getClass().getResourceAsStream("/icons/cycleHover.png")));
-        Image shuffleIcon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/shuffle.png")));
-        Image hoverShuffleIcon = new Image(
-                Objects.requireNonNull(getClass().getResourceAsStream("/icons/shuffleHover.png")));
-        Image singleIcon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/single.png")));
-        Image hoverSingleIcon = new Image(
-                Objects.requireNonNull(getClass().getResourceAsStream("/icons/singleHover.png")));
-        Image volumeIcon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/volume.png")));
-        Image hoverVolumeIcon = new Image(
-                Objects.requireNonNull(getClass().getResourceAsStream("/icons/volumeHover.png")));
-        Image muteIcon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/mute.png")));
-        Image hoverMuteIcon = new Image(
-                Objects.requireNonNull(getClass().getResourceAsStream("/icons/muteHover.png")));
+
+        // the search box stays above the song list, the list is filtered while typing
+        searchField.setPromptText("Search songs, artists, albums");
+        searchField.setStyle("-fx-font-size: 14px;");
+        searchField.textProperty().addListener(_ -> filterPlayPage());
+        VBox.setVgrow(songList, Priority.ALWAYS);
+        playPage.getChildren().addAll(searchField, songList);
+        root.setCenter(playPage);
+        Image prevIcon = Icons.get("previous", BUTTON_SIZE);
+        Image hoverPrevIcon = Icons.get("previousHover", BUTTON_SIZE);
+        Image nextIcon = Icons.get("next", BUTTON_SIZE);
+        Image hoverNextIcon = Icons.get("nextHover", BUTTON_SIZE);
+
+        Image cycleIcon = Icons.get("cycle", BUTTON_SIZE);
+        Image hoverCycleIcon = Icons.get("cycleHover", BUTTON_SIZE);
+        Image shuffleIcon = Icons.get("shuffle", BUTTON_SIZE);
+        Image hoverShuffleIcon = Icons.get("shuffleHover", BUTTON_SIZE);
+        Image singleIcon = Icons.get("single", BUTTON_SIZE);
+        Image hoverSingleIcon = Icons.get("singleHover", BUTTON_SIZE);
+        Image volumeIcon = Icons.get("volume", VOLUME_BUTTON_SIZE);
+        Image hoverVolumeIcon = Icons.get("volumeHover", VOLUME_BUTTON_SIZE);
+        Image muteIcon = Icons.get("mute", VOLUME_BUTTON_SIZE);
+        Image hoverMuteIcon = Icons.get("muteHover", VOLUME_BUTTON_SIZE);
 
         Button downloadPageButton = new Button("Download");
         Button playPageButton = new Button("Play");
@@ -294,12 +420,13 @@ public class App extends Application {
         warningLabel.setStyle("-fx-font-size: 16px;");
 
         // volume control
-        Slider volumeBar = new Slider(0, 1, 1);
+        Slider volumeBar = new Slider(0, 1, player.getVolume());
         volumeBar.setPrefWidth(100);
         // use a container to wrap the volume bar for better positioning
         VBox volumeContainer = new VBox(volumeBar);
         volumeContainer.setAlignment(Pos.CENTER);
-        Button volumeButton = getButton(volumeIcon, hoverVolumeIcon, 15);
+        IconButton volumeButton = isMute ? getButton(muteIcon, hoverMuteIcon, VOLUME_BUTTON_SIZE)
+                : getButton(volumeIcon, hoverVolumeIcon, VOLUME_BUTTON_SIZE);
 
         volumeBar.valueProperty().addListener(_ -> player.setVolume(volumeBar.getValue()));
 
@@ -310,10 +437,10 @@ public class App extends Application {
         volumeButton.setOnMouseClicked(_ -> {
             if (isMute) {
                 isMute = false;
-                modifyButton(volumeIcon, hoverVolumeIcon, volumeButton, 15);
+                modifyButton(volumeIcon, hoverVolumeIcon, volumeButton);
             } else {
                 isMute = true;
-                modifyButton(muteIcon, hoverMuteIcon, volumeButton, 15);
+                modifyButton(muteIcon, hoverMuteIcon, volumeButton);
             }
             player.setMute(isMute);
         });
@@ -362,8 +489,13 @@ public class App extends Application {
         Button prevButton = getButton(prevIcon, hoverPrevIcon, BUTTON_SIZE);
         playPauseButton = isPlaying ? getButton(pauseIcon, hoverPauseIcon, BUTTON_SIZE) : getButton(playIcon, hoverPlayIcon, BUTTON_SIZE);
         Button nextButton = getButton(nextIcon, hoverNextIcon, BUTTON_SIZE);
-        player.setPlaybackMode(AudioPlayer.CYCLE);
-        modeButton = getButton(cycleIcon, hoverCycleIcon, BUTTON_SIZE);
+        if (player.isShuffle()) {
+            modeButton = getButton(shuffleIcon, hoverShuffleIcon, BUTTON_SIZE);
+        } else if (player.isSingle()) {
+            modeButton = getButton(singleIcon, hoverSingleIcon, BUTTON_SIZE);
+        } else {
+            modeButton = getButton(cycleIcon, hoverCycleIcon, BUTTON_SIZE);
+        }
 
         artistsLabel.setPadding(new Insets(0, 0, 0, 115));
         artistsLabel.setTextFill(Color.GRAY);
@@ -371,8 +503,11 @@ public class App extends Application {
         controls.getChildren().addAll(prevButton, playPauseButton, nextButton, modeButton);
 
         progressBar.setPrefWidth(PROGRESS_WIDTH);
+        // the waveform is drawn over the bar, clicks go through to the bar
+        waveform.setMouseTransparent(true);
+        StackPane progressStack = new StackPane(progressBar, waveform);
         HBox progressBarContainer = new HBox(10);
-        progressBarContainer.getChildren().addAll(currentTimeLabel, progressBar, songDuration);
+        progressBarContainer.getChildren().addAll(currentTimeLabel, progressStack, songDuration);
 
         progressBarContainer.setAlignment(Pos.CENTER_RIGHT);
 
@@ -383,7 +518,7 @@ public class App extends Application {
         root.setBottom(bottomArea);
 
         downloadPageButton.setOnAction(_ -> root.setCenter(downloadPage));
-        playPageButton.setOnAction(_ -> root.setCenter(playPageScrollPane));
+        playPageButton.setOnAction(_ -> root.setCenter(playPage));
         perfPageButton.setOnAction(_ -> {
             Perf perf = new Perf();
             perf.start(primaryStage);
@@ -415,17 +550,17 @@ public class App extends Application {
         });
 
         nextButton.setOnAction(_ -> {
-            int index = player.playNext();
+            int trackId = player.playNext();
             player.setMute(isMute);
             isPlaying = true;
-            currentSongName.setText(playlist.get(index));
+            currentSongName.setText(trackTable.getName(trackId));
             modifyButton(pauseIcon, hoverPauseIcon, playPauseButton);
         });
         prevButton.setOnAction(_ -> {
-            int index = player.playPrevious();
+            int trackId = player.playPrevious();
             player.setMute(isMute);
             isPlaying = true;
-            currentSongName.setText(playlist.get(index));
+            currentSongName.setText(trackTable.getName(trackId));
             modifyButton(pauseIcon, hoverPauseIcon, playPauseButton);
         });
 
@@ -444,24 +579,59 @@ public class App extends Application {
         });
     }
 
+    @Override
+    public void stop() {
+        player.stop();
+        dm.shutdown();
+    }
+
+    //called after the songs folder changed, refresh the list once per batch of changes
+    private void reloadPlayPage() {
+        filterPlayPage();
+    }
+
+    //show only the tracks matching the search box, in library order
+    private void filterPlayPage() {
+        int[] ids = player.search(searchField.getText());
+        if (ids == null) {
+            songItems.setAll(player.getTracks());
+            return;
+        }
+        BitSet matching = new BitSet();
+        for (int id : ids) {
+            matching.set(id);
+        }
+        List<Track> matches = new ArrayList<>(ids.length);
+        for (Track track : player.getTracks()) {
+            if (matching.get(track.getId())) {
+                matches.add(track);
+            }
+        }
+        songItems.setAll(matches);
+    }
+
     private void loadPlayPage() {
-        Image playIcon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/play.png")));
-        Image hoverPlayIcon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/playHover.png")));
+        songList.setItems(songItems);
+        songList.setFixedCellSize(50); // same height as the old rows, lets the list skip measuring cells
+        songList.setCellFactory(_ -> new SongCell());
+        songList.setFocusTraversable(false);
+        songList.setStyle("-fx-background-color: #f8f8f8; -fx-background-insets: 0;"); // Set a background color
+        filterPlayPage();
+    }
 
-        Image downloadIcon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/download.png")));
-        Image hoverDownloadIcon = new Image(
-                Objects.requireNonNull(getClass().getResourceAsStream("/icons/downloadHover.png")));
+    // one row of the song list, the nodes are created once per visible cell and refilled for each track shown
+    private class SongCell extends ListCell<Track> {
+        private final HBox songRow = new HBox(5);
+        private final Label songNumber = new Label();
+        private final Label songName = new Label();
+        private final ImageView cover = new ImageView();
 
-        for (int i = 0; i < playlist.size(); i++) {
-            HBox songRow = new HBox(5);
+        SongCell() {
             songRow.setPrefHeight(50);
             songRow.setAlignment(Pos.CENTER_LEFT);
 
-            Label songNumber = new Label("   " + (i + 1));
             songNumber.setPrefWidth(50);
             songNumber.setStyle("-fx-font-size: 16px;");
-
-            Label songName = new Label(playlist.get(i).split("\\.mp3")[0]);
             songName.setStyle("-fx-font-size: 16px;");
 
             Region spacer = new Region();
@@ -469,25 +639,48 @@ public class App extends Application {
             HBox.setHgrow(spacer, Priority.ALWAYS);
 
             Button playButton = getButton(playIcon, hoverPlayIcon, BUTTON_SIZE);
-            Button downloadButton = getButton(downloadIcon, hoverDownloadIcon, BUTTON_SIZE);
+            Button downloadButton = getButton(Icons.get("download", BUTTON_SIZE), Icons.get("downloadHover", BUTTON_SIZE), BUTTON_SIZE);
+
+            cover.setFitWidth(ROW_COVER_SIZE);
+            cover.setFitHeight(ROW_COVER_SIZE);
+            cover.setPreserveRatio(true);
 
-            songRow.getChildren().addAll(songNumber, songName, spacer, playButton, downloadButton);
-            playPageContent.getChildren().add(songRow);
+            songRow.getChildren().addAll(songNumber, cover, songName, spacer, playButton, downloadButton);
 
-            songRow.setOnMouseEntered(_ -> songRow.setStyle("-fx-background-color: #ececec;"));
-            songRow.setOnMouseExited(_ -> songRow.setStyle("-fx-background-color: transparent;"));
+            setStyle("-fx-background-color: transparent; -fx-padding: 0;");
+            setOnMouseEntered(_ -> setStyle("-fx-background-color: #ececec; -fx-padding: 0;"));
+            setOnMouseExited(_ -> setStyle("-fx-background-color: transparent; -fx-padding: 0;"));
 
-            int finalI = i;
             //the play button on each row of a song
             playButton.setOnAction(_ -> {
+                if (getItem() == null) return;
                 isPlaying = true;
-                player.playFromUI(finalI);
+                player.playFromUI(getItem().getId());
                 player.setMute(isMute);
                 modifyButton(pauseIcon, hoverPauseIcon, playPauseButton);
             });
 
             // create a download task
-            downloadButton.setOnAction(_ -> dm.startDownload(finalI));
+            downloadButton.setOnAction(_ -> {
+                if (getItem() != null) dm.startDownload(getItem().getId());
+            });
+        }
+
+        @Override
+        protected void updateItem(Track track, boolean empty) {
+            super.updateItem(track, empty);
+            if (empty || track == null) {
+                setGraphic(null);
+                return;
+            }
+            songNumber.setText("   " + (player.getPosition(track.getId()) + 1));
+            songName.setText(track.getName().split("\\.mp3")[0]);
+            // the thumbnail may arrive after the cell was reused for another track
+            cover.setImage(null);
+            player.getThumbnails().getAsync(track, ROW_COVER_SIZE, image -> {
+                if (getItem() == track) cover.setImage(image);
+            });
+            setGraphic(songRow);
         }
     }
-}
\ No newline at end of file
+}
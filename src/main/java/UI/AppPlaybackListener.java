@@ -0,0 +1,93 @@
+package UI;
+
+import AudioPlayer.PlaybackListener;
+import AudioPlayer.ThumbnailCache;
+import AudioPlayer.Track;
+import javafx.util.Duration;
+
+//Shows the events of the audio player in the main window and in the performance window.
+public class AppPlaybackListener implements PlaybackListener {
+    private final ThumbnailCache thumbnails;
+    private Track currentTrack;
+
+    public AppPlaybackListener(ThumbnailCache thumbnails) {
+        this.thumbnails = thumbnails;
+    }
+
+    @Override
+    public void onLibraryLoaded(int idLimit, String report) {
+        Perf.initializeSongData(idLimit);
+        Perf.updateLibraryLoadTime(report);
+    }
+
+    @Override
+    public void onTagsRead(String report) {
+        Perf.updateTagReadRate(report);
+    }
+
+    @Override
+    public void onSearch(String report) {
+        Perf.updateSearchLatency(report);
+    }
+
+    //The waveform of the current track may have just been computed.
+    @Override
+    public void onAnalysis(String report) {
+        Perf.updateAnalysisRate(report);
+        if (currentTrack != null) {
+            App.updateWaveform(currentTrack.getAnalysis());
+        }
+    }
+
+    @Override
+    public void onMemoryUsage(long usedMegabytes) {
+        Perf.updateMemoryUsage(usedMegabytes);
+    }
+
+    @Override
+    public void onFxThreadLoad(double percent) {
+        Perf.updateFxThreadLoad(percent < 0 ? "-" : String.format("%.1f %%", percent));
+    }
+
+    //Show the title, artist and duration from the library right away and the cover thumbnail once loaded, onReady later refines them from the media.
+    @Override
+    public void onTrackStarted(Track track) {
+        currentTrack = track;
+        App.updateWaveform(track.getAnalysis());
+        String title = track.getTitle() != null ? track.getTitle() : track.getName();
+        Duration duration = Duration.millis(track.getDurationMillis());
+        App.updateAlbum(null, title, duration, track.getArtist());
+        //the cover is decoded on the thumbnail thread, it may arrive after another track started
+        thumbnails.getAsync(track, App.ALBUM_SIZE, cover -> {
+            if (currentTrack == track) App.updateAlbum(cover, title, duration, track.getArtist());
+        });
+    }
+
+    @Override
+    public void onOpened(Track track, double seconds, boolean prepared) {
+        Perf.updateSongOpenTime(track.getId(), seconds, prepared);
+    }
+
+    //The media tags only replace the library title and artist when it has them, many files carry none.
+    //The cover stays the thumbnail, or the empty placeholder without one: the full size image of the media is never shown.
+    @Override
+    public void onReady(Track track, MediaInfo info) {
+        String title = info.title() != null ? info.title() : track.getTitle() != null ? track.getTitle() : track.getName();
+        String artist = info.artist() != null ? info.artist() : track.getArtist();
+        thumbnails.getAsync(track, App.ALBUM_SIZE, cover -> {
+            if (currentTrack == track) App.updateAlbum(cover, title,
+                    Duration.millis(info.durationMillis()), artist);
+        });
+    }
+
+    @Override
+    public void onProgress(double currentMillis, double totalMillis) {
+        App.updatePlayProgress(currentMillis / totalMillis);
+        App.updateCurrentTime(currentMillis);
+    }
+
+    @Override
+    public void onPlayerPool(String report) {
+        Perf.updatePlayerPool(report);
+    }
+}
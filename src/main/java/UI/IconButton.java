@@ -0,0 +1,37 @@
+package UI;
+
+import javafx.scene.Cursor;
+import javafx.scene.control.Button;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+
+//A button showing an icon, and a second icon while the mouse is over it.
+//Both ImageViews are created once: hovering only switches the graphic, changing the icons only swaps their images.
+public final class IconButton extends Button {
+    private final ImageView defaultView = new ImageView();
+    private final ImageView hoverView = new ImageView();
+
+    public IconButton(Image defaultIcon, Image hoverIcon, int size) {
+        for (ImageView view : new ImageView[]{defaultView, hoverView}) {
+            view.setFitWidth(size);
+            view.setFitHeight(size);
+            view.setPreserveRatio(true);
+        }
+        setIcons(defaultIcon, hoverIcon);
+        setGraphic(defaultView);
+        setStyle("-fx-background-color: transparent;");
+        // the cursor is only shown while hovering, so it can stay a hand
+        setCursor(Cursor.HAND);
+        hoverProperty().addListener((_, _, hovered) -> showHover(hovered));
+    }
+
+    //switches between the two graphics, also used by the hover allocation measurement
+    void showHover(boolean hovered) {
+        setGraphic(hovered ? hoverView : defaultView);
+    }
+
+    public void setIcons(Image defaultIcon, Image hoverIcon) {
+        defaultView.setImage(defaultIcon);
+        hoverView.setImage(hoverIcon);
+    }
+}
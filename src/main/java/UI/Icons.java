@@ -0,0 +1,28 @@
+package UI;
+
+import javafx.scene.image.Image;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Central registry of the png icons, each icon is loaded once per size and already scaled to that size.
+public final class Icons {
+    private static final Map<String, Image> images = new ConcurrentHashMap<>();
+
+    private Icons() {
+    }
+
+    //name is the file name in resources/icons/ without ".png", size 0 keeps the original size.
+    public static Image get(String name, int size) {
+        return images.computeIfAbsent(name + "@" + size, _ -> {
+            String path = "/icons/" + name + ".png";
+            return new Image(Objects.requireNonNull(Icons.class.getResourceAsStream(path), path), size, size, true, true);
+        });
+    }
+
+    //how many images were decoded so far, shown in the performance window.
+    public static int loadedCount() {
+        return images.size();
+    }
+}
@@ -1,10 +1,8 @@
 package UI;
 
-import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.chart.*;
 import javafx.scene.control.Label;
-import javafx.scene.image.Image;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
@@ -14,12 +12,27 @@ import java.util.*;
 public class Perf {
     private static final int MAX_DATA_POINTS = 50;
     private static final int RIGHT_MARGIN = 10;
-    // Store song open time data by index (1-based index)
-    private static final Map<Integer, Double> songTimeData = new HashMap<>(); // Store index and open time
+    // Store song open time data by track id
+    private static final Map<Integer, Double> songTimeData = new HashMap<>(); // Store track id and open time
     private static final XYChart.Series<String, Number> songTimeSeries = new XYChart.Series<>(); // For displaying data on the chart
     private static final Label memoryUsage = new Label("-");
+    private static final Label fxThreadLoad = new Label("-");
+    private static final Label startupTime = new Label("-");
+    private static final Label hoverAllocation = new Label("-");
+    private static final Label libraryLoadTime = new Label("-");
+    private static final Label tagReadRate = new Label("-");
+    private static final Label searchLatency = new Label("-");
+    private static final Label analysisRate = new Label("-");
+    private static final Label switchTime = new Label("-");
+    private static final Label playerPool = new Label("-");
+    // open times of the switches to a prepared (pooled or preloaded) player and to a newly opened one
+    private static int preparedSwitches = 0;
+    private static double preparedTotal = 0;
+    private static int coldSwitches = 0;
+    private static double coldTotal = 0;
     // Static variable to track the window instance
     private static Stage perfStage = null;
+    private static Perf openWindow = null;
     private final VBox root = new VBox(10);
     // Store memory usage data
     private final XYChart.Series<Number, Number> memorySeries = new XYChart.Series<>();
@@ -28,14 +41,67 @@ public class Perf {
     private NumberAxis xAxis;
     private NumberAxis yAxis;
 
-    // Updates the displayed memory usage.
-    public static void updateMemoryUsage(String value) {
-        memoryUsage.setText(value);
+    // Updates the displayed memory usage, and the chart when the window is open. Called every second by the player's monitor.
+    public static void updateMemoryUsage(long usedMemory) {
+        memoryUsage.setText(usedMemory + " MB");
+        if (openWindow != null) {
+            openWindow.updateMemoryChart(usedMemory);
+        }
+    }
+
+    // Updates the displayed CPU usage of the FX thread.
+    public static void updateFxThreadLoad(String value) {
+        fxThreadLoad.setText(value);
+    }
+
+    // Updates the displayed startup time of the main window.
+    public static void updateStartupTime(String value) {
+        startupTime.setText(value);
+    }
+
+    // Updates the displayed allocation of button hover toggles, old ImageView per toggle versus IconButton.
+    public static void updateHoverAllocation(String value) {
+        hoverAllocation.setText(value);
     }
 
-    // Updates the song open time for a specific song index and refreshes the chart
-    public static void updateSongOpenTime(int index, double elapsedTimeInSeconds) {
-        songTimeData.put(index, elapsedTimeInSeconds);
+    // Updates the displayed library load time (index versus full scan).
+    public static void updateLibraryLoadTime(String value) {
+        libraryLoadTime.setText(value);
+    }
+
+    // Updates the displayed tag reading throughput.
+    public static void updateTagReadRate(String value) {
+        tagReadRate.setText(value);
+    }
+
+    // Updates the displayed waveform / loudness analysis throughput.
+    public static void updateAnalysisRate(String value) {
+        analysisRate.setText(value);
+    }
+
+    // Updates the displayed latency of the last search query.
+    public static void updateSearchLatency(String value) {
+        searchLatency.setText(value);
+    }
+
+    // Updates the displayed hit / miss / eviction counts of the media player pool.
+    public static void updatePlayerPool(String value) {
+        playerPool.setText(value);
+    }
+
+    // Updates the song open time for a specific track id and refreshes the chart and the prepared / cold averages
+    public static void updateSongOpenTime(int trackId, double elapsedTimeInSeconds, boolean prepared) {
+        songTimeData.put(trackId, elapsedTimeInSeconds);
+        if (prepared) {
+            preparedSwitches++;
+            preparedTotal += elapsedTimeInSeconds;
+        } else {
+            coldSwitches++;
+            coldTotal += elapsedTimeInSeconds;
+        }
+        switchTime.setText(String.format("prepared %.1f ms (%d), cold %.1f ms (%d)",
+                preparedSwitches > 0 ? preparedTotal * 1000 / preparedSwitches : 0, preparedSwitches,
+                coldSwitches > 0 ? coldTotal * 1000 / coldSwitches : 0, coldSwitches));
 
         updateSongTimeChart();
     }
@@ -43,8 +109,8 @@ public class Perf {
     // Refreshes the song open time chart with the current data
     private static void updateSongTimeChart() {
         songTimeSeries.getData().clear();
-        songTimeData.forEach((index, openTime) -> {
-            songTimeSeries.getData().add(new XYChart.Data<>(String.valueOf(index), openTime)); // Use index as the label
+        songTimeData.forEach((trackId, openTime) -> {
+            songTimeSeries.getData().add(new XYChart.Data<>(String.valueOf(trackId + 1), openTime)); // Use 1-based id as the label
         });
     }
 
@@ -53,6 +119,7 @@ public class Perf {
         if (perfStage != null) {
             perfStage.close();
             perfStage = null;
+            openWindow = null;
         }
     }
 
@@ -63,10 +130,9 @@ public class Perf {
         }
 
         // Create the performance window
-        Image icon = new Image(Objects.requireNonNull(getClass().getResourceAsStream("/icons/perf.png")));
         perfStage = new Stage();
         Scene scene = new Scene(root, 700, 850);
-        perfStage.getIcons().add(icon);
+        perfStage.getIcons().add(Icons.get("perf", 0));
 
         perfStage.setTitle("Performance");
         perfStage.setScene(scene);
@@ -78,12 +144,13 @@ public class Perf {
         perfStage.setOnCloseRequest(_ -> closeWindow());
 
         memory();
+        libraryLoad();
         setupMemoryChart();
         setupSongTimeChart();
 
         perfStage.show();
 
-        startPerformanceUpdater();
+        openWindow = this;
     }
 
     // Adds memory usage label to the UI
@@ -94,6 +161,72 @@ public class Perf {
         HBox memoryBox = new HBox(10);
         memoryBox.getChildren().addAll(memoryLabel, memoryUsage);
         root.getChildren().add(memoryBox);
+
+        Label fxLabel = new Label("FX thread CPU: ");
+        fxLabel.setStyle("-fx-font-size: 16px;");
+        fxThreadLoad.setStyle("-fx-font-size: 16px;");
+        HBox fxBox = new HBox(10);
+        fxBox.getChildren().addAll(fxLabel, fxThreadLoad);
+        root.getChildren().add(fxBox);
+    }
+
+    // Adds library load time label to the UI
+    private void libraryLoad() {
+        Label startupLabel = new Label("Startup: ");
+        startupLabel.setStyle("-fx-font-size: 16px;");
+        startupTime.setStyle("-fx-font-size: 16px;");
+        HBox startupBox = new HBox(10);
+        startupBox.getChildren().addAll(startupLabel, startupTime);
+        root.getChildren().add(startupBox);
+
+        Label hoverLabel = new Label("Hover allocation: ");
+        hoverLabel.setStyle("-fx-font-size: 16px;");
+        hoverAllocation.setStyle("-fx-font-size: 16px;");
+        HBox hoverBox = new HBox(10);
+        hoverBox.getChildren().addAll(hoverLabel, hoverAllocation);
+        root.getChildren().add(hoverBox);
+
+        Label libraryLabel = new Label("Library load: ");
+        libraryLabel.setStyle("-fx-font-size: 16px;");
+        libraryLoadTime.setStyle("-fx-font-size: 16px;");
+        HBox libraryBox = new HBox(10);
+        libraryBox.getChildren().addAll(libraryLabel, libraryLoadTime);
+        root.getChildren().add(libraryBox);
+
+        Label tagLabel = new Label("Tag reading: ");
+        tagLabel.setStyle("-fx-font-size: 16px;");
+        tagReadRate.setStyle("-fx-font-size: 16px;");
+        HBox tagBox = new HBox(10);
+        tagBox.getChildren().addAll(tagLabel, tagReadRate);
+        root.getChildren().add(tagBox);
+
+        Label analysisLabel = new Label("Analysis: ");
+        analysisLabel.setStyle("-fx-font-size: 16px;");
+        analysisRate.setStyle("-fx-font-size: 16px;");
+        HBox analysisBox = new HBox(10);
+        analysisBox.getChildren().addAll(analysisLabel, analysisRate);
+        root.getChildren().add(analysisBox);
+
+        Label searchLabel = new Label("Last search: ");
+        searchLabel.setStyle("-fx-font-size: 16px;");
+        searchLatency.setStyle("-fx-font-size: 16px;");
+        HBox searchBox = new HBox(10);
+        searchBox.getChildren().addAll(searchLabel, searchLatency);
+        root.getChildren().add(searchBox);
+
+        Label switchLabel = new Label("Song switch: ");
+        switchLabel.setStyle("-fx-font-size: 16px;");
+        switchTime.setStyle("-fx-font-size: 16px;");
+        HBox switchBox = new HBox(10);
+        switchBox.getChildren().addAll(switchLabel, switchTime);
+        root.getChildren().add(switchBox);
+
+        Label poolLabel = new Label("Player pool: ");
+        poolLabel.setStyle("-fx-font-size: 16px;");
+        playerPool.setStyle("-fx-font-size: 16px;");
+        HBox poolBox = new HBox(10);
+        poolBox.getChildren().addAll(poolLabel, playerPool);
+        root.getChildren().add(poolBox);
     }
 
     // Set up memory usage line chart
@@ -121,10 +254,10 @@ public class Perf {
         yAxis.setUpperBound(100); // Initialize to 0-100, will adjust dynamically later
     }
 
-    // Initializes song open time data with a given playlist size
-    public void initializeSongData(int playListSize) {
+    // Initializes song open time data for the track ids 0 .. trackCount - 1
+    public static void initializeSongData(int trackCount) {
         songTimeData.clear();
-        for (int i = 1; i <= playListSize; i++) {
+        for (int i = 0; i < trackCount; i++) {
             songTimeData.put(i, 0.0);
         }
         updateSongTimeChart();
@@ -146,38 +279,22 @@ public class Perf {
         root.getChildren().add(songTimeChart);
     }
 
-    // Starts a timer to periodically update memory usage
-    private void startPerformanceUpdater() {
-        Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                updateMemoryChart();
-            }
-        }, 0, 1000); // Update every second
-    }
-
-    // Updates the memory usage chart with current memory data
-    private void updateMemoryChart() {
-        Runtime runtime = Runtime.getRuntime();
-        long usedMemory = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024); // MB
-
-        Platform.runLater(() -> {
-            memorySeries.getData().add(new XYChart.Data<>(time, usedMemory));
+    // Updates the memory usage chart with current memory data, on the FX thread
+    private void updateMemoryChart(long usedMemory) {
+        memorySeries.getData().add(new XYChart.Data<>(time, usedMemory));
 
-            if (memorySeries.getData().size() > MAX_DATA_POINTS) {
-                memorySeries.getData().removeFirst();
-            }
+        if (memorySeries.getData().size() > MAX_DATA_POINTS) {
+            memorySeries.getData().removeFirst();
+        }
 
-            adjustYAxis();
+        adjustYAxis();
 
-            if (time > MAX_DATA_POINTS) {
-                xAxis.setLowerBound(time - MAX_DATA_POINTS);
-                xAxis.setUpperBound(time + RIGHT_MARGIN);
-            }
+        if (time > MAX_DATA_POINTS) {
+            xAxis.setLowerBound(time - MAX_DATA_POINTS);
+            xAxis.setUpperBound(time + RIGHT_MARGIN);
+        }
 
-            time++;
-        });
+        time++;
     }
 
     // Dynamically adjusts the Y-axis range for memory usage
@@ -13,6 +13,7 @@ module edu.kean.musicplayersimulator {
     requires annotations;
     requires java.desktop;
     requires javafx.media;
+    requires javafx.swing;
 
     opens AudioPlayer to javafx.graphics;
     exports UI;
@@ -0,0 +1,174 @@
+package AudioPlayer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/* Drives the AudioPlayer headless: an in memory Playlist and a SimulatedPlaybackEngine, every track lasts one minute.
+ * Covers what each mode plays when a track ends, next / previous at both ends of the library
+ * and the hand-off of the preloaded track to play(). */
+class PlaybackModeTest {
+    private static final int TRACKS = 5;
+    private static final long TRACK_MILLIS = 60_000;
+    private Playlist playlist;
+    private SimulatedPlaybackEngine engine;
+    private AudioPlayer player;
+    // every track the engine opened, and whether it was the preloaded one
+    private final List<Integer> opened = new ArrayList<>();
+    private final List<Boolean> prepared = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        List<Track> library = new ArrayList<>();
+        for (int i = 0; i < TRACKS; i++) {
+            Track track = new Track(String.format("track%02d.mp3", i), 1000 + i, 0);
+            track.setDurationMillis(TRACK_MILLIS);
+            library.add(track);
+        }
+        playlist = new Playlist(library);
+        engine = new SimulatedPlaybackEngine();
+        player = new AudioPlayer(playlist, engine);
+        player.addListener(new PlaybackListener() {
+            @Override
+            public void onOpened(Track track, double seconds, boolean wasPrepared) {
+                opened.add(track.getId());
+                prepared.add(wasPrepared);
+            }
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        player.stop();
+    }
+
+    //Cycle plays the library in order and starts again from the first track after the last one.
+    @Test
+    void cycleMovesToTheNextTrackAndWrapsAround() {
+        player.playFromUI(idAt(0));
+        for (int i = 1; i <= TRACKS; i++) {
+            endTrack();
+            assertEquals(idAt(i % TRACKS), engine.getCurrentTrack().getId());
+        }
+        assertTrue(engine.isPlaying());
+        assertEquals(TRACKS + 1, engine.getTracksPlayed());
+    }
+
+    //Single plays the same track again, the playing track is not preloaded a second time.
+    @Test
+    void singleRepeatsTheCurrentTrack() {
+        player.playFromUI(idAt(2));
+        player.setPlaybackMode(AudioPlayer.SINGLE);
+        for (int i = 0; i < 3; i++) {
+            endTrack();
+            assertEquals(idAt(2), engine.getCurrentTrack().getId());
+            assertEquals(0, engine.getPositionMillis());
+            assertFalse(lastPrepared());
+        }
+        assertTrue(engine.isPlaying());
+    }
+
+    //Shuffle plays every track once before any track comes back.
+    @Test
+    void shufflePlaysEveryTrackOncePerRound() {
+        player.playFromUI(idAt(0));
+        player.setPlaybackMode(AudioPlayer.SHUFFLE);
+        Set<Integer> played = new HashSet<>();
+        played.add(engine.getCurrentTrack().getId());
+        for (int i = 1; i < TRACKS; i++) {
+            endTrack();
+            assertTrue(played.add(engine.getCurrentTrack().getId()), "a track came back before the round ended");
+        }
+        assertEquals(TRACKS, played.size());
+        assertTrue(engine.isPlaying());
+    }
+
+    //Previous on the first track goes to the last one, next on the last track goes to the first one.
+    @Test
+    void cycleNextAndPreviousWrapAtTheEdges() {
+        player.playFromUI(idAt(0));
+        assertEquals(idAt(TRACKS - 1), player.playPrevious());
+        assertEquals(idAt(0), player.playNext());
+        player.playFromUI(idAt(TRACKS - 1));
+        assertEquals(idAt(0), player.playNext());
+        assertEquals(idAt(TRACKS - 1), player.playPrevious());
+    }
+
+    //Next and previous keep the current track in single mode, even at the edges.
+    @Test
+    void singleNextAndPreviousStayOnTheTrack() {
+        player.playFromUI(idAt(0));
+        player.setPlaybackMode(AudioPlayer.SINGLE);
+        assertEquals(idAt(0), player.playPrevious());
+        player.playFromUI(idAt(TRACKS - 1));
+        assertEquals(idAt(TRACKS - 1), player.playNext());
+    }
+
+    //Previous walks back the shuffle order, also from its first track.
+    @Test
+    void shufflePreviousReturnsToTheTracksPlayed() {
+        player.playFromUI(idAt(0));
+        player.setPlaybackMode(AudioPlayer.SHUFFLE);
+        List<Integer> forward = new ArrayList<>();
+        forward.add(player.getCurrentTrackId());
+        for (int i = 1; i < TRACKS; i++) {
+            forward.add(player.playNext());
+        }
+        for (int i = TRACKS - 2; i >= 0; i--) {
+            assertEquals(forward.get(i), player.playPrevious());
+        }
+        // before the first track of the order, the walk goes on to a track of the same order
+        assertTrue(forward.contains(player.playPrevious()));
+    }
+
+    //The track after the current one is preloaded once the current one is ready, and play() takes it over.
+    @Test
+    void preloadedTrackIsHandedToPlay() {
+        player.playFromUI(idAt(0));
+        assertFalse(lastPrepared());
+        endTrack();
+        assertEquals(idAt(1), lastOpened());
+        assertTrue(lastPrepared());
+        assertEquals(idAt(2), player.playNext());
+        assertTrue(lastPrepared());
+    }
+
+    //A skip the other way, or a mode switch, opens a track that was not the preloaded one.
+    @Test
+    void preloadFollowsTheDirectionAndTheMode() {
+        player.playFromUI(idAt(1));
+        player.playPrevious();
+        assertEquals(idAt(0), lastOpened());
+        assertFalse(lastPrepared());
+
+        player.setPlaybackMode(AudioPlayer.SHUFFLE);
+        int next = playlist.peekTrackId(1);
+        assertEquals(next, player.playNext());
+        assertTrue(lastPrepared());
+    }
+
+    private int idAt(int position) {
+        return playlist.getTracks().get(position).getId();
+    }
+
+    private void endTrack() {
+        engine.advance(TRACK_MILLIS - engine.getPositionMillis());
+    }
+
+    private int lastOpened() {
+        return opened.getLast();
+    }
+
+    private boolean lastPrepared() {
+        return prepared.getLast();
+    }
+}
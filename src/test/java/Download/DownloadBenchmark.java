@@ -0,0 +1,309 @@
+package Download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+// 下载吞吐量与并发数的基准测试，不需要界面，不限速复制临时文件，比较流复制和 transferTo
+// Download throughput versus concurrency benchmark, runs without the UI and copies temp files with no speed limit,
+// once with the stream loop, once with transferTo and once hashed with SHA-256 on the way, CPU time per GB is the CPU time of the whole process
+// 第二种模式检查全局限速：总速度与设定值的偏差 // The second mode checks the global limit: how far the total rate is from the configured one
+// 第三种模式比较一个大文件分成不同段数时的速度 // The third mode compares one large file copied with different segment counts
+// 第四种模式比较有很多已下载文件时，一次点击下载的检查耗时 // The fourth mode times the already downloaded check of one click with many past downloads
+// 用法 // Usage: java Download.DownloadBenchmark [files] [file MB] [concurrency ...]
+//             java Download.DownloadBenchmark limit [KB/s] [seconds] [tasks ...]
+//             java Download.DownloadBenchmark segments [file MB] [segments ...]
+//             java Download.DownloadBenchmark registry [downloads ...]
+public class DownloadBenchmark {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("limit")) {
+            benchmarkLimit(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("segments")) {
+            benchmarkSegments(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("registry")) {
+            benchmarkRegistry(args);
+            return;
+        }
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int fileMegabytes = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int[] levels = {1, 2, 4, 8, 16, 32};
+        if (args.length > 2) {
+            levels = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) {
+                levels[i - 2] = Integer.parseInt(args[i]);
+            }
+        }
+
+        Path dir = Files.createTempDirectory("download-benchmark");
+        try {
+            Path sources = Files.createDirectories(dir.resolve("sources"));
+            createSources(sources, files, fileMegabytes);
+            System.out.printf("%d files of %d MB, %d cores%n", files, fileMegabytes, Runtime.getRuntime().availableProcessors());
+            System.out.println("copy      concurrency   seconds      MB/s   CPU s/GB   peak platform threads");
+            for (String mode : new String[]{"stream", "transfer", "hashed"}) {
+                for (int level : levels) {
+                    Path destinations = Files.createDirectories(dir.resolve("out-" + level));
+                    // 每次使用新的索引，否则后面的运行只建立硬链接 // A new index per run, otherwise the later runs only make hard links
+                    ContentIndex index = mode.equals("hashed") ? new ContentIndex(destinations.resolve("index")) : null;
+                    ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+                    long cpuStart = processCpuTime();
+                    double seconds = run(sources, destinations, files, level, !mode.equals("stream"), new TokenBucket(0), index);
+                    double cpuSeconds = (processCpuTime() - cpuStart) / 1e9;
+                    double megabytes = (double) files * fileMegabytes;
+                    System.out.printf("%-8s %13d %9.2f %9.1f %10.3f %23d%n", mode, level,
+                            seconds, megabytes / seconds, cpuSeconds / (megabytes / 1024),
+                            ManagementFactory.getThreadMXBean().getPeakThreadCount());
+                    if (index != null) {
+                        index.close();
+                    }
+                    delete(destinations);
+                }
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    // 所有任务同时运行并共享一个令牌桶，每个任务的文件大小使总数据量约为 seconds 秒的量
+    // All tasks run at once and share one token bucket, the files are sized so the whole copy takes about seconds
+    private static void benchmarkLimit(String[] args) throws IOException, InterruptedException {
+        long rate = (args.length > 1 ? Long.parseLong(args[1]) : 2048) * 1024;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int[] levels = {1, 200};
+        if (args.length > 3) {
+            levels = new int[args.length - 3];
+            for (int i = 3; i < args.length; i++) {
+                levels[i - 3] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("global limit %d KB/s, about %d s per run%n", rate / 1024, seconds);
+        System.out.println("tasks   seconds     KB/s   deviation");
+        for (int tasks : levels) {
+            Path dir = Files.createTempDirectory("download-limit");
+            try {
+                Path sources = Files.createDirectories(dir.resolve("sources"));
+                Path destinations = Files.createDirectories(dir.resolve("out"));
+                long fileBytes = rate * seconds / tasks;
+                byte[] data = new byte[(int) fileBytes];
+                for (int i = 0; i < tasks; i++) {
+                    Files.write(sources.resolve("song" + i + ".mp3"), data);
+                }
+                TokenBucket limiter = new TokenBucket(rate);
+                double elapsed = run(sources, destinations, tasks, tasks, true, limiter, null);
+                double measured = fileBytes * tasks / elapsed;
+                System.out.printf("%5d %9.2f %8.1f %10.2f %%%n", tasks, elapsed, measured / 1024, 100 * (measured - rate) / rate);
+            } finally {
+                delete(dir);
+            }
+        }
+    }
+
+    // 每种段数复制同一个文件三次，取最快的一次 // Copy the same file three times per segment count and keep the fastest
+    private static void benchmarkSegments(String[] args) throws IOException {
+        int fileMegabytes = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+        int[] counts = {1, 2, 4, 8};
+        if (args.length > 2) {
+            counts = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) {
+                counts[i - 2] = Integer.parseInt(args[i]);
+            }
+        }
+        Path dir = Files.createTempDirectory("download-segments");
+        try {
+            Path sources = Files.createDirectories(dir.resolve("sources"));
+            createSources(sources, 1, fileMegabytes);
+            String source = sources.resolve("song0.mp3").toString();
+            String destination = dir.resolve("copy.mp3").toString();
+            System.out.printf("one file of %d MB, %d cores%n", fileMegabytes, Runtime.getRuntime().availableProcessors());
+            System.out.println("segments   seconds      MB/s   CPU s/GB");
+            for (int count : counts) {
+                double best = Double.MAX_VALUE;
+                double bestCpu = 0;
+                for (int round = 0; round < 3; round++) {
+                    DownloadTask task = new DownloadTask(source, destination, null, "copy");
+                    task.setSegments(count);
+                    task.setProgressCallback(new ProgressCallback() {
+                        @Override
+                        public void updateProgress(double progress) {
+                        }
+
+                        @Override
+                        public void onError(Exception e) {
+                            System.err.println("Error copying: " + e.getMessage());
+                        }
+
+                        @Override
+                        public void onCancelled() {
+                        }
+
+                        @Override
+                        public void onComplete() {
+                        }
+                    });
+                    long cpuStart = processCpuTime();
+                    long startTime = System.nanoTime();
+                    task.run();
+                    double seconds = (System.nanoTime() - startTime) / 1e9;
+                    if (seconds < best) {
+                        best = seconds;
+                        bestCpu = (processCpuTime() - cpuStart) / 1e9;
+                    }
+                    Files.delete(Path.of(destination));
+                }
+                System.out.printf("%8d %9.3f %9.1f %10.3f%n", count, best, fileMegabytes / best, bestCpu / (fileMegabytes / 1024.0));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    // 旧的检查在每次点击时对每个已下载的路径调用 File.exists 再在列表里查找，登记表查一次哈希集合和一个文件
+    // The old check called File.exists on every downloaded path and searched a list on each click, the registry checks one hash set entry and one file
+    private static void benchmarkRegistry(String[] args) throws IOException {
+        int[] counts = {10, 1000, 100000};
+        if (args.length > 1) {
+            counts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                counts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.println("downloads   old click ms   registry click us   add us   load ms");
+        for (int count : counts) {
+            Path dir = Files.createTempDirectory("download-registry");
+            try {
+                Path downloads = Files.createDirectories(dir.resolve("Downloads"));
+                List<String> paths = new ArrayList<>();
+                DownloadRegistry registry = new DownloadRegistry(downloads, dir.resolve("registry"));
+                long addNanos = 0;
+                for (int i = 0; i < count; i++) {
+                    String name = "song" + i + ".mp3";
+                    Files.createFile(downloads.resolve(name));
+                    paths.add(downloads.resolve(name).toString());
+                    long startTime = System.nanoTime();
+                    registry.add(name);
+                    addNanos += System.nanoTime() - startTime;
+                }
+
+                int clicks = 5;
+                long startTime = System.nanoTime();
+                for (int click = 0; click < clicks; click++) {
+                    List<String> missing = new ArrayList<>();
+                    for (String path : paths) {
+                        if (!new File(path).exists()) {
+                            missing.add(path);
+                        }
+                    }
+                    paths.removeAll(missing);
+                    if (!paths.contains(downloads.resolve("song" + (count - 1) + ".mp3").toString())) {
+                        throw new IllegalStateException("Old check lost a download");
+                    }
+                }
+                double oldMillis = (System.nanoTime() - startTime) / 1e6 / clicks;
+
+                int lookups = 100000;
+                startTime = System.nanoTime();
+                for (int i = 0; i < lookups; i++) {
+                    if (!registry.contains("song" + (i % count) + ".mp3")) {
+                        throw new IllegalStateException("Registry lost a download");
+                    }
+                }
+                double registryMicros = (System.nanoTime() - startTime) / 1e3 / lookups;
+
+                startTime = System.nanoTime();
+                DownloadRegistry loaded = new DownloadRegistry(downloads, dir.resolve("registry"));
+                double loadMillis = (System.nanoTime() - startTime) / 1e6;
+                if (loaded.size() != count) {
+                    throw new IllegalStateException("Loaded " + loaded.size() + " of " + count + " downloads");
+                }
+                System.out.printf("%9d %14.3f %19.2f %8.2f %9.1f%n", count, oldMillis, registryMicros, addNanos / 1e3 / count, loadMillis);
+            } finally {
+                delete(dir);
+            }
+        }
+    }
+
+    // 一次提交全部文件，等待全部完成，index 为 null 时不计算哈希 // Submit every file at once and wait for all of them, no hash when index is null
+    private static double run(Path sources, Path destinations, int files, int concurrency, boolean zeroCopy,
+                              TokenBucket limiter, ContentIndex index) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(files);
+        DownloadScheduler scheduler = new DownloadScheduler(concurrency, (_, _) -> {
+        });
+        long startTime = System.nanoTime();
+        for (int i = 0; i < files; i++) {
+            String name = "song" + i + ".mp3";
+            DownloadTask task = new DownloadTask(sources.resolve(name).toString(), destinations.resolve(name).toString(), null, name);
+            task.setSpeedLimit(0);
+            task.setGlobalLimiter(limiter);
+            task.setZeroCopy(zeroCopy);
+            task.setContentIndex(index);
+            task.setProgressCallback(new ProgressCallback() {
+                @Override
+                public void updateProgress(double progress) {
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    System.err.println("Error copying " + name + ": " + e.getMessage());
+                    done.countDown();
+                }
+
+                @Override
+                public void onCancelled() {
+                    done.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    done.countDown();
+                }
+            });
+            scheduler.submit(i, task, DownloadScheduler.NORMAL);
+        }
+        done.await();
+        return (System.nanoTime() - startTime) / 1e9;
+    }
+
+    // -1 时无法测量 // -1 when it can not be measured
+    private static long processCpuTime() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private static void createSources(Path sources, int files, int fileMegabytes) throws IOException {
+        byte[] block = new byte[1024 * 1024];
+        new Random(1).nextBytes(block);
+        for (int i = 0; i < files; i++) {
+            // 每个文件内容不同，否则哈希复制只会建立硬链接 // Every file differs, otherwise the hashed copy only makes hard links
+            ByteBuffer.wrap(block).putInt(0, i);
+            try (OutputStream out = Files.newOutputStream(sources.resolve("song" + i + ".mp3"))) {
+                for (int mb = 0; mb < fileMegabytes; mb++) {
+                    out.write(block);
+                }
+            }
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+}
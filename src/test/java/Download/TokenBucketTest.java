@@ -0,0 +1,188 @@
+package Download;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// 全局令牌桶：不论多少任务共享，总速度都接近设定值；运行中修改单个任务的上限立即生效
+// Global token bucket: the total rate stays close to the configured one however many tasks share it; changing the cap of a running task applies at once
+class TokenBucketTest {
+    private static final long RATE = 1024 * 1024;
+    private static final long CHUNK = 8 * 1024;
+    private static final double TOLERANCE = 0.05;
+    // 任务按约 0.1 秒的块预约，第一块不用等，所以下载的容差大一些 // Tasks reserve chunks of about 0.1 s and the first one is free, so a download gets more room
+    private static final double TASK_TOLERANCE = 0.15;
+
+    @Test
+    void oneConsumerKeepsTheRate() throws InterruptedException {
+        assertRate(1);
+    }
+
+    @Test
+    void twoHundredConsumersShareTheRate() throws InterruptedException {
+        assertRate(200);
+    }
+
+    @Test
+    void unlimitedBucketNeverWaits() {
+        TokenBucket bucket = new TokenBucket(0);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, bucket.reserve(CHUNK));
+        }
+    }
+
+    @Test
+    void rateChangeAppliesToLaterReservations() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(RATE);
+        consume(bucket, 1, RATE, CHUNK);
+        bucket.setRate(4 * RATE);
+        double measured = consume(bucket, 1, 8 * RATE, 4 * CHUNK);
+        assertWithin(4 * RATE, measured);
+    }
+
+    // 下载中把任务上限从 256 KB/s 提高到 1 MB/s：之后的进度按新的上限前进
+    // Raise the cap of a running download from 256 KB/s to 1 MB/s: from then on the progress follows the new cap
+    @Test
+    void taskCapChangeIsRespected(@TempDir Path dir) throws IOException, InterruptedException {
+        long size = 3 * RATE;
+        byte[] data = new byte[(int) size];
+        new Random(1).nextBytes(data);
+        Path source = Files.write(dir.resolve("song.mp3"), data);
+        Path destination = dir.resolve("out").resolve("song.mp3");
+
+        AtomicLong copiedBytes = new AtomicLong();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        DownloadTask task = new DownloadTask(source.toString(), destination.toString(), new ProgressCallback() {
+            @Override
+            public void updateProgress(double progress) {
+                copiedBytes.set((long) (progress * size));
+            }
+
+            @Override
+            public void onError(Exception e) {
+                error.set(e);
+                done.countDown();
+            }
+
+            @Override
+            public void onCancelled() {
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        }, "song.mp3");
+        task.setSpeedLimit(RATE / 4);
+        Thread.ofVirtual().start(task);
+
+        Thread.sleep(1000);
+        long before = copiedBytes.get();
+        assertWithin(RATE / 4, before, TASK_TOLERANCE);
+        task.setSpeedLimit(RATE);
+        long changedAt = System.nanoTime();
+        assertTrue(done.await(10, TimeUnit.SECONDS), "download did not finish");
+        double seconds = (System.nanoTime() - changedAt) / 1e9;
+
+        assertNull(error.get());
+        assertWithin(RATE, (size - before) / seconds, TASK_TOLERANCE);
+        assertArrayEquals(data, Files.readAllBytes(destination));
+    }
+
+    private static void assertRate(int consumers) throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(RATE);
+        assertWithin(RATE, consume(bucket, consumers, 2 * RATE, CHUNK));
+    }
+
+    // 提高速率时已经在等待的预约按新速率重新预约，不必等完按旧速率算出的时间
+    // Raising the rate reserves a pending wait again at the new rate instead of sitting out the time computed at the old one
+    @Test
+    void rateRaiseShortensPendingWait() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(RATE / 16);
+        bucket.reserve(RATE);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread.ofVirtual().start(() -> {
+            try {
+                bucket.acquire(CHUNK, () -> false);
+                done.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Thread.sleep(200);
+        assertEquals(1, done.getCount());
+        long changedAt = System.nanoTime();
+        bucket.setRate(0);
+        assertTrue(done.await(1, TimeUnit.SECONDS), "the wait kept the old rate");
+        assertTrue(System.nanoTime() - changedAt < 500_000_000L);
+    }
+
+    // 停止条件成立后唤醒，等待立即结束 // Once the stop condition holds a wake up ends the wait at once
+    @Test
+    void wakeUpEndsStoppedWait() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(RATE / 16);
+        bucket.reserve(RATE);
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread.ofVirtual().start(() -> {
+            try {
+                bucket.acquire(CHUNK, stop::get);
+                done.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Thread.sleep(200);
+        stop.set(true);
+        bucket.wakeWaiters();
+        assertTrue(done.await(1, TimeUnit.SECONDS), "the stopped wait did not end");
+    }
+
+    // 每个消费者按 chunk 用 acquire 等待，共搬运 total/consumers 字节，返回总速度；和任务一样，块按速率放大，否则每次等待的误差会累积
+    // Each consumer acquires chunk bytes at a time, moving total/consumers bytes, returns the aggregate rate;
+    // like the tasks the chunk grows with the rate, otherwise the error of every wait adds up
+    private static double consume(TokenBucket bucket, int consumers, long total, long chunk) throws InterruptedException {
+        long perConsumer = total / consumers;
+        CountDownLatch done = new CountDownLatch(consumers);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < consumers; i++) {
+            Thread.ofVirtual().start(() -> {
+                try {
+                    for (long moved = 0; moved < perConsumer; moved += chunk) {
+                        bucket.acquire(Math.min(chunk, perConsumer - moved), () -> false);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS), "consumers did not finish");
+        return perConsumer * consumers / ((System.nanoTime() - startTime) / 1e9);
+    }
+
+    private static void assertWithin(double expected, double measured) {
+        assertWithin(expected, measured, TOLERANCE);
+    }
+
+    private static void assertWithin(double expected, double measured, double tolerance) {
+        assertTrue(Math.abs(measured - expected) <= expected * tolerance,
+                String.format("measured %.0f B/s, expected %.0f B/s within %.0f%%", measured, expected, tolerance * 100));
+    }
+}